@@ -0,0 +1,104 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the CSV results of a benchmark run with the published baseline in
+ * src/jmh/baseline.csv and exits with a non zero status if any benchmark
+ * regressed by more than the given percentage.
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar org.fcrepo.bench.BaselineComparison src/jmh/baseline.csv results.csv [tolerance]
+ * </pre>
+ */
+public class BaselineComparison {
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: BaselineComparison <baseline.csv> <results.csv> [tolerance-percent]");
+            System.exit(2);
+        }
+        final double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 20d;
+        final Map<String, Result> baseline = readResults(args[0]);
+        final Map<String, Result> current = readResults(args[1]);
+
+        int regressions = 0;
+        for (final Map.Entry<String, Result> entry : current.entrySet()) {
+            final Result base = baseline.get(entry.getKey());
+            if (base == null) {
+                System.out.printf("%-70s %12.3f %s (no baseline)%n", entry.getKey(), entry.getValue().score,
+                        entry.getValue().unit);
+                continue;
+            }
+            final Result res = entry.getValue();
+            /* throughput scores get better when they grow, time scores when they shrink */
+            final double change =
+                    res.unit.endsWith("/op") ? (base.score - res.score) / base.score * 100d : (res.score - base.score) /
+                            base.score * 100d;
+            final boolean regressed = change < -tolerance;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-70s %12.3f %12.3f %s %+7.1f%%%s%n", entry.getKey(), base.score, res.score,
+                    res.unit, change, regressed ? " REGRESSION" : "");
+        }
+        if (regressions > 0) {
+            System.out.printf("%d benchmark(s) regressed by more than %.1f%%%n", regressions, tolerance);
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Result> readResults(final String path) throws IOException {
+        final Map<String, Result> results = new LinkedHashMap<>();
+        try (final BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            final List<String> header = parseLine(reader.readLine());
+            final int scoreIdx = header.indexOf("Score");
+            final int unitIdx = header.indexOf("Unit");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                final List<String> cols = parseLine(line);
+                final StringBuilder key = new StringBuilder(cols.get(0)).append(' ').append(cols.get(2));
+                for (int i = unitIdx + 1; i < cols.size(); i++) {
+                    if (!cols.get(i).isEmpty()) {
+                        key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(cols.get(i));
+                    }
+                }
+                results.put(key.toString(), new Result(Double.parseDouble(cols.get(scoreIdx)), cols.get(unitIdx)));
+            }
+        }
+        return results;
+    }
+
+    private static List<String> parseLine(final String line) {
+        final List<String> cols = new ArrayList<>();
+        for (final String col : line.trim().split(",", -1)) {
+            cols.add(col.replace("\"", ""));
+        }
+        return cols;
+    }
+
+    private static class Result {
+
+        private final double score;
+
+        private final String unit;
+
+        private Result(final double score, final String unit) {
+            this.score = score;
+            this.unit = unit;
+        }
+    }
+}
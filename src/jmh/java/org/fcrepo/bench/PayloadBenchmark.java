@@ -0,0 +1,85 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Streaming throughput of the generated payloads. Multiply the score by the
+ * payload size to get the bytes per second a single thread can generate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadBenchmark {
+
+    @Param({ "1048576", "67108864" })
+    public long size;
+
+    private byte[] buffer;
+
+    /* the socket buffer the sink copies every block into */
+    private byte[] scratch;
+
+    private OutputStream sink;
+
+    @Setup
+    public void setup(final Blackhole bh) {
+        /* the buffer size used by HttpClient's InputStreamEntity */
+        buffer = new byte[4096];
+        scratch = new byte[65536];
+        sink = new OutputStream() {
+
+            @Override
+            public void write(final int b) {
+                bh.consume(b);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+                /* copy the whole block the way a socket stream does, so the cost grows with the bytes written */
+                for (int pos = off, end = off + len; pos < end; pos += scratch.length) {
+                    final int n = Math.min(scratch.length, end - pos);
+                    System.arraycopy(b, pos, scratch, 0, n);
+                    bh.consume(scratch[n - 1]);
+                }
+            }
+        };
+    }
+
+    @Benchmark
+    public long readInputStream() throws IOException {
+        final BenchToolInputStream in = new BenchToolInputStream(size, BenchTool.RANDOM_SLICE);
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer, 0, buffer.length)) != -1) {
+            total += read;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public void writeEntity() throws IOException {
+        new BenchToolEntity(size, BenchTool.RANDOM_SLICE).writeTo(sink);
+    }
+}
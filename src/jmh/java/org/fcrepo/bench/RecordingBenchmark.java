@@ -0,0 +1,52 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.fcrepo.bench.BenchTool.Action;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recording of action results by the worker threads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordingBenchmark {
+
+    private final LatencyRecorder recorder = new LatencyRecorder();
+
+    private BenchToolResult nextResult() {
+        /* between 100us and 100ms */
+        final long duration = 100000L + ThreadLocalRandom.current().nextLong(100000000L);
+        return new BenchToolResult(0f, duration, 1024);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void record() {
+        recorder.record(Action.INGEST, nextResult(), ActionWorker.UNSCHEDULED);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void recordContended() {
+        recorder.record(Action.INGEST, nextResult(), ActionWorker.UNSCHEDULED);
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.net.URI;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction of the request URIs by the Fedora 4 client, with and without
+ * a transaction
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RestClientUriBenchmark {
+
+    private Fedora4RestClient client;
+
+    private TransactionState tx;
+
+    private String pid;
+
+    @Setup
+    public void setup() {
+        client = new Fedora4RestClient(URI.create("http://localhost:8080/fcrepo"), null);
+        tx = new TransactionState(0);
+        tx.setTransactionId("tx:" + UUID.randomUUID().toString());
+        pid = UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    public String contentUri() {
+        return client.getContentUri(pid, null);
+    }
+
+    @Benchmark
+    public String contentUriInTx() {
+        return client.getContentUri(pid, tx);
+    }
+}
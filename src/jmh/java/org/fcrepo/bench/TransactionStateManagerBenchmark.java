@@ -0,0 +1,62 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.fcrepo.bench.TransactionStateManager.TransactionMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Assignment of actions to transactions by several dispatching threads at
+ * once. The transactions accept an unlimited number of actions, so that the
+ * benchmark measures the assignment only and not the creation of
+ * transactions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransactionStateManagerBenchmark {
+
+    @Param({ "1", "16" })
+    public int parallelTx;
+
+    private TransactionStateManager txManager;
+
+    @Setup
+    public void setup() throws IOException {
+        txManager = new TransactionStateManager(TransactionMode.COMMIT, 0, parallelTx);
+        for (int i = 0; i < parallelTx; i++) {
+            txManager.assign();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public TransactionState getTransaction() throws IOException {
+        return txManager.assign().getTransaction();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public TransactionState getTransactionContended() throws IOException {
+        return txManager.assign().getTransaction();
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.fcrepo.bench.BenchTool.Action;
+import org.uncommons.maths.random.XORShiftRNG;
+
+/**
+ * A weighted mix of actions performed against the same prepared objects, e.g.
+ * <code>read=70,update=20,ingest=5,update_property=5</code>. The action of each
+ * worker is drawn from the weights, so that the different kinds of requests
+ * hit the repository at the same time. The mix is only used by the
+ * dispatching thread.
+ */
+public class ActionMix {
+
+    /* actions which are performed by the runner itself and can not be mixed */
+    private static final Set<Action> UNMIXABLE = EnumSet.of(Action.LIST, Action.CREATE_TX, Action.COMMIT_TX,
+            Action.ROLLBACK_TX);
+
+    private final Action[] actions;
+
+    /* the cumulative weights of the actions */
+    private final double[] thresholds;
+
+    private final XORShiftRNG rng = new XORShiftRNG();
+
+    /**
+     * @param weights the relative weights of the actions to perform
+     */
+    public ActionMix(final Map<Action, Double> weights) {
+        super();
+        double total = 0d;
+        for (final Map.Entry<Action, Double> weight : weights.entrySet()) {
+            if (UNMIXABLE.contains(weight.getKey())) {
+                throw new IllegalArgumentException("The action " + weight.getKey() + " can not be part of a mix");
+            }
+            if (weight.getValue() < 0d) {
+                throw new IllegalArgumentException("The weight of " + weight.getKey() + " must not be negative");
+            }
+            total += weight.getValue();
+        }
+        if (total <= 0d) {
+            throw new IllegalArgumentException("The mix has to contain an action with a positive weight");
+        }
+        this.actions = new Action[weights.size()];
+        this.thresholds = new double[weights.size()];
+        double sum = 0d;
+        int i = 0;
+        for (final Map.Entry<Action, Double> weight : weights.entrySet()) {
+            sum += weight.getValue();
+            actions[i] = weight.getKey();
+            thresholds[i++] = sum / total;
+        }
+    }
+
+    /**
+     * Parse a mix of the form <code>action=weight,action=weight,...</code>
+     * @param mix the mix to parse
+     * @return the mix
+     */
+    public static ActionMix parse(final String mix) {
+        final Map<Action, Double> weights = new EnumMap<>(Action.class);
+        for (final String part : mix.split(",")) {
+            final String[] pair = part.trim().split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Mix " + mix + " could not be parsed");
+            }
+            final Action action = Action.valueOf(pair[0].trim().toUpperCase());
+            final Double previous = weights.put(action, Double.parseDouble(pair[1].trim()));
+            if (previous != null) {
+                throw new IllegalArgumentException("The action " + action + " is part of the mix " + mix + " twice");
+            }
+        }
+        return new ActionMix(weights);
+    }
+
+    /**
+     * @return the action of the next worker
+     */
+    public Action next() {
+        final double r = rng.nextDouble();
+        for (int i = 0; i < actions.length - 1; i++) {
+            if (r < thresholds[i]) {
+                return actions[i];
+            }
+        }
+        return actions[actions.length - 1];
+    }
+
+    /**
+     * @return the actions of the mix with a positive weight
+     */
+    public Set<Action> getActions() {
+        final Set<Action> result = EnumSet.noneOf(Action.class);
+        double previous = 0d;
+        for (int i = 0; i < actions.length; i++) {
+            if (thresholds[i] > previous) {
+                result.add(actions[i]);
+            }
+            previous = thresholds[i];
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        double previous = 0d;
+        for (int i = 0; i < actions.length; i++) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(actions[i].name().toLowerCase()).append('=').append(
+                    String.format("%.1f%%", (thresholds[i] - previous) * 100d));
+            previous = thresholds[i];
+        }
+        return sb.toString();
+    }
+}
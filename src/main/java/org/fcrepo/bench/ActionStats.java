@@ -0,0 +1,160 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency and throughput statistics of a single kind of action. Latencies are
+ * recorded in microseconds into a fixed number of HdrHistogram
+ * {@link Recorder}s which are striped by thread, so that recording is
+ * wait-free and the memory footprint does not depend on the number of actions
+ * performed. The stripes are merged by the reading side only.
+ */
+public class ActionStats {
+
+    /* one hour is the longest latency tracked, longer values are clamped */
+    static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    static final int SIGNIFICANT_DIGITS = 3;
+
+    private static final int NUM_STRIPES = stripeCount();
+
+    private final String name;
+
+    private final Stripe[] stripes;
+
+    private final Histogram total = newHistogram();
+
+    /* the latencies collected since the last interval has been taken */
+    private final Histogram interval = newHistogram();
+
+    public ActionStats(final String name) {
+        this.name = name;
+        this.stripes = new Stripe[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Record a single completed action
+     * @param durationNanos the duration of the action in nanoseconds
+     * @param bytes the number of payload bytes transferred by the action
+     */
+    public void record(final long durationNanos, final long bytes) {
+        final Stripe stripe = stripes[(int) Thread.currentThread().getId() & (NUM_STRIPES - 1)];
+        stripe.recorder.recordValue(Math.min(Math.max(durationNanos / 1000, 0), HIGHEST_TRACKABLE_MICROS));
+        stripe.count.incrementAndGet();
+        if (bytes > 0) {
+            stripe.bytes.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Merge the latencies recorded since the last call into the accumulated
+     * histogram. Only called by the reading side.
+     * @return the latencies recorded since the last call
+     */
+    public synchronized Histogram collect() {
+        final Histogram sample = newHistogram();
+        for (final Stripe stripe : stripes) {
+            stripe.interval = stripe.recorder.getIntervalHistogram(stripe.interval);
+            sample.add(stripe.interval);
+        }
+        total.add(sample);
+        interval.add(sample);
+        return sample;
+    }
+
+    /**
+     * Take the latencies recorded since the last call, independently of
+     * other readers collecting the stats
+     * @return the latencies of the interval
+     */
+    public synchronized Histogram takeInterval() {
+        collect();
+        final Histogram taken = interval.copy();
+        interval.reset();
+        return taken;
+    }
+
+    /**
+     * Add latencies and counters recorded elsewhere, e.g. by the agents of a
+     * distributed run
+     * @param latencies the latencies in microseconds
+     * @param count the number of actions
+     * @param bytes the number of payload bytes transferred
+     */
+    public synchronized void merge(final Histogram latencies, final long count, final long bytes) {
+        total.add(latencies);
+        stripes[0].count.addAndGet(count);
+        stripes[0].bytes.addAndGet(bytes);
+    }
+
+    /**
+     * @return a copy of all the latencies collected so far
+     */
+    public synchronized Histogram getTotal() {
+        return total.copy();
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (final Stripe stripe : stripes) {
+            count += stripe.count.get();
+        }
+        return count;
+    }
+
+    public long getBytes() {
+        long bytes = 0;
+        for (final Stripe stripe : stripes) {
+            bytes += stripe.bytes.get();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    static Histogram newHistogram() {
+        /* auto resizing, so that rarely used stats stay small */
+        return new Histogram(SIGNIFICANT_DIGITS);
+    }
+
+    private static int stripeCount() {
+        final int cpus = Runtime.getRuntime().availableProcessors() * 2;
+        int stripes = 1;
+        while (stripes < cpus) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    private static class Stripe {
+
+        /*
+         * auto resizing, the footprint grows with the range of values recorded only. Not packed, concurrent
+         * writers resizing a packed recorder deadlock.
+         */
+        private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong bytes = new AtomicLong();
+
+        /* recycled by the reading side on every collect */
+        private Histogram interval;
+    }
+}
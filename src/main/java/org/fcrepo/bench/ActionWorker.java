@@ -3,6 +3,8 @@ package org.fcrepo.bench;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 import org.fcrepo.bench.BenchTool.Action;
@@ -13,6 +15,9 @@ public class ActionWorker implements Callable<BenchToolResult> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ActionWorker.class);
 
+    /* intended start time of actions which are not part of an open loop schedule */
+    public static final long UNSCHEDULED = Long.MIN_VALUE;
+
     private final FedoraRestClient fedora;
 
     private final TransactionState tx;
@@ -23,10 +28,42 @@ public class ActionWorker implements Callable<BenchToolResult> {
 
     private final String pid;
 
+    private final LatencyRecorder recorder;
+
+    private final long intendedStart;
+
+    private final boolean prepare;
+
+    /* the file ingested instead of a generated payload or null */
+    private final SourceFileEntity content;
+
+    /* counts the children while a container is listed, null for other actions */
+    private final ContainmentCounter counter;
+
+    /**
+     * @param prepare whether the object the action is performed on has to be
+     *        created by the worker before the action is measured
+     */
+    public ActionWorker(final Action action, final URI fedoraUri, final String pid, final long binarySize,
+            final FedoraRestClient restClient, final TransactionState tx, final LatencyRecorder recorder,
+            final long intendedStart, final boolean prepare) {
+        this(action, fedoraUri, pid, binarySize, restClient, tx, recorder, intendedStart, prepare, null);
+    }
+
+    /**
+     * @param content the file to ingest instead of a generated payload of
+     *        the given size or null
+     */
     public ActionWorker(final Action action, final URI fedoraUri, final String pid, final long binarySize,
-            final FedoraRestClient restClient, final TransactionState tx) {
+            final FedoraRestClient restClient, final TransactionState tx, final LatencyRecorder recorder,
+            final long intendedStart, final boolean prepare, final SourceFileEntity content) {
         super();
-        this.binarySize = binarySize;
+        this.prepare = prepare;
+        this.recorder = recorder;
+        this.intendedStart = intendedStart;
+        this.content = content;
+        this.counter = action == Action.LIST ? new ContainmentCounter() : null;
+        this.binarySize = content == null ? binarySize : content.getContentLength();
         this.fedora = restClient;
         this.action = action;
         this.pid = pid;
@@ -39,120 +76,194 @@ public class ActionWorker implements Callable<BenchToolResult> {
      */
     @Override
     public BenchToolResult call() throws Exception {
+        final BenchToolResult result = execute();
+        recorder.record(action, result, intendedStart, RequestTimings.current());
+        return result;
+    }
+
+    private BenchToolResult execute() throws IOException {
         LOGGER.debug("Executing action {} as part of tx {}", this.action, this.tx == null ? "none" : this.tx
                 .getTransactionId());
+        recorder.started();
+        boolean succeeded = false;
         try {
-            /* check the action and run the appropriate test */
-            switch (this.action) {
-            case INGEST:
-                return doIngest();
-            case UPDATE:
-                return doUpdate();
-            case READ:
-                return doRead();
-            case DELETE:
-                return doDelete();
-            case CREATE_TX:
-                return doCreateTx();
-            case COMMIT_TX:
-                return doCommitTx();
-            case ROLLBACK_TX:
-                return doRollbackTx();
-            case SPARQL_INSERT:
-                return doSparqlInsert();
-            case SPARQL_SELECT:
-                return doSparqlSelect();
-            case CREATE_PROPERTY:
-                return doCreateProperty();
-            case READ_PROPERTY:
-                return doReadProperty();
-            case UPDATE_PROPERTY:
-                return doUpdateProperty();
-            case DELETE_PROPERTY:
-                return doDeleteProperty();
-            default:
-                throw new IllegalArgumentException("The Action " + action.name() +
-                        " is not available in the worker thread");
+            checkTransaction();
+            if (prepare) {
+                fedora.prepareObject(pid, action, binarySize, tx);
             }
+            final long duration = perform();
+            final RequestTimings timings = RequestTimings.current();
+            final BenchToolResult result =
+                    createResult(timings.getStart(), duration, timings.getBytes(), timings.getTimeToFirstByte(),
+                            timings.getStatus());
+            succeeded = true;
+            return result;
         } finally {
-            if (tx != null) {
-                tx.actionCompleted(this.action);
-            }
+            finished(succeeded);
         }
     }
 
-    private BenchToolResult doSparqlSelect() throws IOException {
-        final long duration = fedora.sparqlSelect(pid, tx);
-        return new BenchToolResult(-1f, duration, -1);
-    }
-
-    private BenchToolResult doSparqlInsert() throws IOException {
-        final long duration = fedora.sparqlInsert(pid, tx);
-        return new BenchToolResult(-1f, duration, -1);
-    }
-
-    private BenchToolResult doDelete() throws IOException {
-        final long duration = fedora.deleteDatastream(pid, tx);
-        return new BenchToolResult(-1f, duration, binarySize);
-    }
-
-    private BenchToolResult doRead() throws IOException {
-        final long duration = fedora.retrieveDatastream(pid, tx);
-        final float tp = binarySize * 1000f / duration;
-        return new BenchToolResult(tp, duration, binarySize);
-    }
-
-    private BenchToolResult doUpdate() throws IOException {
-        final long duration = fedora.updateDatastream(pid, binarySize, tx);
-        final float tp = binarySize * 1000f / duration;
-        return new BenchToolResult(tp, duration, binarySize);
-    }
-
-    private BenchToolResult doIngest() throws IOException {
-        final long duration = fedora.createDatastream(pid, binarySize, tx);
-        final float tp = binarySize * 1000f / duration;
-        return new BenchToolResult(tp, duration, binarySize);
-    }
-
-    private BenchToolResult doCreateTx() throws IOException {
-        final long duration = fedora.createTransaction(tx);
-        fedora.getTxManager().addToCreateTime(duration);
-        return new BenchToolResult(0, duration, 0);
-    }
-
-    private BenchToolResult doCommitTx() throws IOException {
-        final long duration = fedora.commitTransaction(tx);
-        fedora.getTxManager().addToCommitTime(duration);
-        return new BenchToolResult(0, duration, 0);
+    /**
+     * Fail the action without sending it if its transaction could not be
+     * created, the action is then counted as an error
+     */
+    private void checkTransaction() throws IOException {
+        if (tx != null && tx.isFailed()) {
+            throw new IOException("The transaction of the " + action.name() + " action could not be created");
+        }
     }
 
-    private BenchToolResult doRollbackTx() throws IOException {
-        final long duration = fedora.rollbackTransaction(tx);
-        fedora.getTxManager().addToCommitTime(duration);
-        return new BenchToolResult(0, duration, 0);
+    /**
+     * Run the appropriate test for the action
+     * @return the duration of the action's request in nanoseconds
+     */
+    private long perform() throws IOException {
+        switch (this.action) {
+        case INGEST:
+            if (content != null) {
+                return fedora.createDatastream(pid, content, tx);
+            }
+            return fedora.createDatastream(pid, binarySize, tx);
+        case UPDATE:
+            return fedora.updateDatastream(pid, binarySize, tx);
+        case READ:
+            return fedora.retrieveDatastream(pid, tx);
+        case DELETE:
+            return fedora.deleteDatastream(pid, tx);
+        case LIST:
+            return fedora.listChildren(pid, counter, tx);
+        case CREATE_TX:
+            return fedora.createTransaction(tx);
+        case COMMIT_TX:
+            return fedora.commitTransaction(tx);
+        case ROLLBACK_TX:
+            return fedora.rollbackTransaction(tx);
+        case SPARQL_INSERT:
+        case CREATE_PROPERTY:
+            return fedora.sparqlInsert(pid, tx);
+        case SPARQL_SELECT:
+        case READ_PROPERTY:
+            return fedora.sparqlSelect(pid, tx);
+        case UPDATE_PROPERTY:
+            return fedora.sparqlUpdate(pid, tx);
+        case DELETE_PROPERTY:
+            return fedora.sparqlDelete(pid, tx);
+        default:
+            throw new IllegalArgumentException("The Action " + action.name() +
+                    " is not available in the worker thread");
+        }
     }
 
-    private BenchToolResult doCreateProperty() throws IOException {
-        final long duration = fedora.sparqlInsert(pid, tx);
-        final float tp = binarySize * 1000f / duration;
-        return new BenchToolResult(tp, duration, binarySize);
+    /**
+     * Create the result of the action and account the time spent on
+     * transactions
+     * @param start the start of the action's request as returned by
+     *        {@link System#nanoTime()}
+     * @param duration the duration of the action's request in nanoseconds
+     * @param bytesRead the number of bytes of the response body
+     * @param timeToFirstByte the time to the first byte of the response in
+     *        nanoseconds
+     * @param status the HTTP status of the response
+     */
+    private BenchToolResult createResult(final long start, final long duration, final long bytesRead,
+            final long timeToFirstByte, final int status) {
+        float throughput = -1f;
+        long size = -1;
+        switch (this.action) {
+        case READ:
+            return new BenchToolResult(bytesRead * 1e9f / duration, duration, bytesRead, timeToFirstByte, action,
+                    start, status);
+        case LIST:
+            return new BenchToolResult(bytesRead * 1e9f / duration, duration, bytesRead, timeToFirstByte, action,
+                    start, status, counter.getCount(), counter.getParseNanos());
+        case INGEST:
+        case UPDATE:
+        case CREATE_PROPERTY:
+        case READ_PROPERTY:
+        case UPDATE_PROPERTY:
+        case DELETE_PROPERTY:
+            throughput = binarySize * 1e9f / duration;
+            size = binarySize;
+            break;
+        case DELETE:
+            size = binarySize;
+            break;
+        case CREATE_TX:
+            fedora.getTxManager().addToCreateTime(duration);
+            throughput = 0;
+            size = 0;
+            break;
+        case COMMIT_TX:
+        case ROLLBACK_TX:
+            fedora.getTxManager().addToCommitTime(duration);
+            throughput = 0;
+            size = 0;
+            break;
+        default:
+            break;
+        }
+        return new BenchToolResult(throughput, duration, size, -1, action, start, status);
     }
 
-    private BenchToolResult doReadProperty() throws IOException {
-        final long duration = fedora.sparqlSelect(pid, tx);
-        final float tp = binarySize * 1000f / duration;
-        return new BenchToolResult(tp, duration, binarySize);
+    /**
+     * @return the requests performing the action with the non-blocking
+     *         engine. Only the last one is measured, the ones before it
+     *         prepare the object if required.
+     */
+    List<FedoraRequest> createRequests() throws IOException {
+        recorder.started();
+        checkTransaction();
+        final List<FedoraRequest> requests =
+                prepare ? fedora.prepareRequests(pid, action, binarySize, tx) : new ArrayList<FedoraRequest>(1);
+        if (content != null) {
+            requests.add(fedora.createDatastreamRequest(pid, content, tx));
+        } else if (counter != null) {
+            requests.add(fedora.listChildrenRequest(pid, counter, tx));
+        } else {
+            requests.add(fedora.createRequest(action, pid, binarySize, tx));
+        }
+        return requests;
     }
 
-    private BenchToolResult doUpdateProperty() throws IOException {
-        final long duration = fedora.sparqlUpdate(pid, tx);
-        final float tp = binarySize * 1000f / duration;
-        return new BenchToolResult(tp, duration, binarySize);
+    /**
+     * Record the result of the action once the non-blocking engine has
+     * completed its requests
+     * @param start the start of the measured request as returned by
+     *        {@link System#nanoTime()}
+     * @param duration the duration of the measured request in nanoseconds
+     * @param bytesRead the number of bytes of the response body
+     * @param timeToFirstByte the time to the first byte of the response in
+     *        nanoseconds
+     * @param status the HTTP status of the response
+     * @return the result of the action
+     */
+    BenchToolResult completed(final long start, final long duration, final long bytesRead,
+            final long timeToFirstByte, final int status) {
+        try {
+            final BenchToolResult result = createResult(start, duration, bytesRead, timeToFirstByte, status);
+            /* the phases of non-blocking requests are not timed */
+            recorder.record(action, result, intendedStart, null);
+            return result;
+        } finally {
+            finished(true);
+        }
     }
 
-    private BenchToolResult doDeleteProperty() throws IOException {
-        final long duration = fedora.sparqlDelete(pid, tx);
-        final float tp = binarySize * 1000f / duration;
-        return new BenchToolResult(tp, duration, binarySize);
+    /**
+     * Called once the action has finished, whether it succeeded or not
+     * @param succeeded false if the action failed
+     */
+    void finished(final boolean succeeded) {
+        recorder.finished(action, succeeded);
+        if (tx != null) {
+            if (action == Action.CREATE_TX && !succeeded) {
+                /* the actions released by the creation are failed without being sent */
+                tx.setFailed();
+            }
+            tx.actionCompleted(this.action);
+            if (succeeded && (action == Action.COMMIT_TX || action == Action.ROLLBACK_TX)) {
+                recorder.recordBatch(tx);
+            }
+        }
     }
 }
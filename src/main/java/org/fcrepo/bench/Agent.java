@@ -0,0 +1,181 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The connection of a load generating agent to the {@link Coordinator} of a
+ * distributed run. The agent receives the command line and scenario of the
+ * run together with its own range of pids, waits at a barrier before every
+ * phase, so that all the agents start their phases at the same time, and
+ * sends the latencies and counters of its measured phases back to the
+ * coordinator.
+ */
+public class Agent implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Agent.class);
+
+    /* the number of low order bits of a pid index available to each agent */
+    static final int RANGE_BITS = 40;
+
+    /* how long to wait for the coordinator to come up */
+    private static final long CONNECT_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+    private final Socket socket;
+
+    private final DataInputStream in;
+
+    private final DataOutputStream out;
+
+    private final int index;
+
+    private final int numAgents;
+
+    private final UUID preparedBase;
+
+    private final UUID createdBase;
+
+    private final String[] args;
+
+    /* null if the run is not described by a scenario file */
+    private final String scenario;
+
+    private Agent(final Socket socket) throws IOException {
+        super();
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.index = in.readInt();
+        this.numAgents = in.readInt();
+        this.preparedBase = new UUID(in.readLong(), in.readLong());
+        this.createdBase = new UUID(in.readLong(), in.readLong());
+        this.args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+        this.scenario = in.readBoolean() ? Coordinator.readText(in) : null;
+    }
+
+    /**
+     * Connect to the coordinator and receive the settings of the run,
+     * retrying until the coordinator accepts the connection
+     * @param address the host and port of the coordinator
+     * @return the agent
+     */
+    public static Agent connect(final String address) throws IOException {
+        final int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("The address of the coordinator has to be given as host:port");
+        }
+        final InetSocketAddress coordinator =
+                new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        final long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while (true) {
+            final Socket socket = new Socket();
+            try {
+                socket.connect(coordinator);
+                socket.setTcpNoDelay(true);
+                final Agent agent = new Agent(socket);
+                LOG.info("Connected to the coordinator at {} as agent {} of {}", new Object[] { address,
+                        agent.index + 1, agent.numAgents });
+                return agent;
+            } catch (final ConnectException e) {
+                socket.close();
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                LOG.info("Waiting for the coordinator at {}", address);
+                try {
+                    Thread.sleep(1000);
+                } catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while connecting to the coordinator", ie);
+                }
+            } catch (final IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Tell the coordinator that this agent is ready to start the phase and
+     * wait until all the other agents are ready as well
+     * @param phase the number of the phase
+     */
+    public void awaitStart(final int phase) throws IOException {
+        out.writeInt(phase);
+        out.flush();
+        if (!in.readBoolean()) {
+            throw new IOException("The coordinator has aborted the run");
+        }
+    }
+
+    /**
+     * Send the results of a measured phase to the coordinator
+     * @param runner the runner of the phase
+     */
+    public void sendResults(final FCRepoBenchRunner runner) throws IOException {
+        out.writeLong(runner.getTestTime());
+        runner.getRecorder().writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * @return the generator of the pids of the objects prepared by this agent
+     */
+    public PidGenerator getPreparedPids() {
+        return new PidGenerator(preparedBase, (long) index << RANGE_BITS);
+    }
+
+    /**
+     * @return the generator of the pids of the objects created by the
+     *         workers of this agent
+     */
+    public PidGenerator getCreatedPids() {
+        return new PidGenerator(createdBase, (long) index << RANGE_BITS);
+    }
+
+    /**
+     * @return the number of the agent, starting at 0
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the command line of the run
+     */
+    public String[] getArgs() {
+        return args;
+    }
+
+    /**
+     * @return the scenario of the run or null if the run is described by
+     *         the command line only
+     */
+    public String getScenario() {
+        return scenario;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.uncommons.maths.random.XORShiftRNG;
+
+/**
+ * Computes the intended start times of the actions of an open loop benchmark
+ * run. Actions arrive at a constant rate or, if requested, following a
+ * Poisson process with the same mean rate. The schedule is only used by the
+ * dispatching thread.
+ */
+public class ArrivalSchedule {
+
+    private final double nanosPerAction;
+
+    private final boolean poisson;
+
+    private final XORShiftRNG rng = new XORShiftRNG();
+
+    private long origin;
+
+    private double offset;
+
+    /**
+     * @param rate the number of actions per second
+     * @param poisson whether the inter-arrival times should be exponentially
+     *        distributed instead of constant
+     */
+    public ArrivalSchedule(final double rate, final boolean poisson) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("The arrival rate has to be positive");
+        }
+        this.nanosPerAction = 1e9d / rate;
+        this.poisson = poisson;
+    }
+
+    /**
+     * Set the time at which the first action is intended to start
+     * @param origin the start time as returned by {@link System#nanoTime()}
+     */
+    public void start(final long origin) {
+        this.origin = origin;
+        this.offset = 0d;
+    }
+
+    /**
+     * Wait until the intended start time of the next action has been reached.
+     * If the dispatcher has fallen behind the schedule this returns
+     * immediately, so that the time the action spent waiting is accounted
+     * for in its latency.
+     * @return the intended start time of the next action as returned by
+     *         {@link System#nanoTime()}
+     */
+    public long awaitNext() {
+        final long intended = origin + (long) offset;
+        if (poisson) {
+            offset += -Math.log(1d - rng.nextDouble()) * nanosPerAction;
+        } else {
+            offset += nanosPerAction;
+        }
+        long wait;
+        while ((wait = intended - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+        return intended;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.2f actions/sec%s", 1e9d / nanosPerAction, poisson ? " (poisson arrivals)" : "");
+    }
+}
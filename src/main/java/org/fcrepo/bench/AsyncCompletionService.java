@@ -0,0 +1,245 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Performs {@link ActionWorker}s with a non-blocking {@link HttpAsyncClient}
+ * instead of a thread pool. The requests of all the workers are multiplexed
+ * over the client's I/O threads, so the number of actions in flight is not
+ * bound to the number of threads. Results are queued in the order the actions
+ * complete.
+ */
+public class AsyncCompletionService implements CompletionService<BenchToolResult> {
+
+    /* reused by the I/O threads for discarding response bodies */
+    private static final ThreadLocal<ByteBuffer> DISCARD_BUFFER = new ThreadLocal<ByteBuffer>() {
+
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(65536);
+        }
+    };
+
+    private final HttpAsyncClient client;
+
+    private final BlockingQueue<Future<BenchToolResult>> completed = new LinkedBlockingQueue<>();
+
+    public AsyncCompletionService(final HttpAsyncClient client) {
+        super();
+        this.client = client;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.CompletionService#submit(java.util.concurrent.Callable)
+     */
+    @Override
+    public Future<BenchToolResult> submit(final Callable<BenchToolResult> task) {
+        if (!(task instanceof ActionWorker)) {
+            throw new IllegalArgumentException("Only action workers can be performed by the non-blocking engine");
+        }
+        final ActionWorker worker = (ActionWorker) task;
+        final BasicFuture<BenchToolResult> future = new BasicFuture<>(null);
+        final Exchange exchange = new Exchange(worker, future);
+        try {
+            exchange.start(worker.createRequests().iterator());
+        } catch (final IOException | RuntimeException e) {
+            exchange.failed(e);
+        }
+        return future;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.CompletionService#submit(java.lang.Runnable, java.lang.Object)
+     */
+    @Override
+    public Future<BenchToolResult> submit(final Runnable task, final BenchToolResult result) {
+        throw new UnsupportedOperationException("Only action workers can be performed by the non-blocking engine");
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.CompletionService#take()
+     */
+    @Override
+    public Future<BenchToolResult> take() throws InterruptedException {
+        return completed.take();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.CompletionService#poll()
+     */
+    @Override
+    public Future<BenchToolResult> poll() {
+        return completed.poll();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.CompletionService#poll(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public Future<BenchToolResult> poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return completed.poll(timeout, unit);
+    }
+
+    /**
+     * Executes the requests of a single worker one after the other, each one
+     * from the callback of its predecessor, and measures the last one
+     */
+    private class Exchange implements FutureCallback<HttpResponse> {
+
+        private final ActionWorker worker;
+
+        private final BasicFuture<BenchToolResult> future;
+
+        private Iterator<FedoraRequest> requests;
+
+        private FedoraRequest request;
+
+        private DiscardingConsumer consumer;
+
+        private long start;
+
+        private Exchange(final ActionWorker worker, final BasicFuture<BenchToolResult> future) {
+            this.worker = worker;
+            this.future = future;
+        }
+
+        private void start(final Iterator<FedoraRequest> requests) {
+            this.requests = requests;
+            executeNext();
+        }
+
+        private void executeNext() {
+            request = requests.next();
+            consumer = new DiscardingConsumer(request.getBodyDigest(), request.getCounter());
+            start = System.nanoTime();
+            request.beforeSend();
+            client.execute(HttpAsyncMethods.create(request.getMethod()), consumer, this);
+        }
+
+        @Override
+        public void completed(final HttpResponse response) {
+            final long duration = System.nanoTime() - start;
+            try {
+                request.verify(response);
+                request.bodyRead(consumer.bytes);
+                if (requests.hasNext()) {
+                    executeNext();
+                    return;
+                }
+            } catch (final IOException | RuntimeException e) {
+                failed(e);
+                return;
+            }
+            future.completed(worker.completed(start, duration, consumer.bytes, consumer.firstByte - start, response
+                    .getStatusLine().getStatusCode()));
+            AsyncCompletionService.this.completed.add(future);
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            worker.finished(false);
+            future.failed(ex);
+            AsyncCompletionService.this.completed.add(future);
+        }
+
+        @Override
+        public void cancelled() {
+            worker.finished(false);
+            future.cancel();
+            AsyncCompletionService.this.completed.add(future);
+        }
+    }
+
+    /**
+     * Reads the response body without keeping it, feeding it into the digest of
+     * a fixity check and the counter of a listing if there are any, and marks the arrival of the response
+     * headers
+     */
+    private static class DiscardingConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+        /* null unless the body is checked */
+        private final MessageDigest digest;
+
+        /* null unless the body lists children */
+        private final ContainmentCounter counter;
+
+        private HttpResponse response;
+
+        private long firstByte;
+
+        private long bytes;
+
+        private DiscardingConsumer(final MessageDigest digest, final ContainmentCounter counter) {
+            this.digest = digest;
+            this.counter = counter;
+        }
+
+        @Override
+        protected void onResponseReceived(final HttpResponse response) {
+            this.firstByte = System.nanoTime();
+            this.response = response;
+        }
+
+        @Override
+        protected void onContentReceived(final ContentDecoder decoder, final IOControl ioctrl) throws IOException {
+            final ByteBuffer buffer = DISCARD_BUFFER.get();
+            int read;
+            while ((read = decoder.read(buffer)) > 0) {
+                bytes += read;
+                if (digest != null) {
+                    digest.update(buffer.array(), buffer.arrayOffset(), read);
+                }
+                if (counter != null) {
+                    counter.update(buffer.array(), buffer.arrayOffset(), read);
+                }
+                /* called on Buffer, since newer JDKs override clear() in ByteBuffer */
+                ((Buffer) buffer).clear();
+            }
+        }
+
+        @Override
+        protected void onEntityEnclosed(final HttpEntity entity, final ContentType contentType) {
+        }
+
+        @Override
+        protected HttpResponse buildResult(final HttpContext context) {
+            return response;
+        }
+
+        @Override
+        protected void releaseResources() {
+            response = null;
+        }
+    }
+}
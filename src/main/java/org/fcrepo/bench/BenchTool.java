@@ -4,8 +4,11 @@
 
 package org.fcrepo.bench;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.URI;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -16,16 +19,27 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.FileUtils;
 import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.client.StandardHttpRequestRetryHandler;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.util.EntityUtils;
 import org.fcrepo.bench.TransactionStateManager.TransactionMode;
 import org.slf4j.Logger;
@@ -50,6 +64,18 @@ public class BenchTool {
     /* should be used by all the threads */
     static CloseableHttpClient httpClient;
 
+    /* the connection pool of the blocking client */
+    private static PoolingHttpClientConnectionManager connManager;
+
+    /* null if the metrics are not exposed */
+    static MetricsEndpoint metrics;
+
+    /* the number of I/O threads of the clients of the non-blocking engine */
+    private static int ioThreads = Runtime.getRuntime().availableProcessors();
+
+    /* null if no user has been given */
+    private static BasicCredentialsProvider credentials;
+
     enum Action {
         INGEST, READ, UPDATE, DELETE, LIST, CREATE_TX, COMMIT_TX, ROLLBACK_TX, SPARQL_INSERT, SPARQL_SELECT,
         CREATE_PROPERTY, READ_PROPERTY, UPDATE_PROPERTY, DELETE_PROPERTY;
@@ -59,23 +85,36 @@ public class BenchTool {
         FCREPO3, FCREPO4;
     }
 
+    /* how the actions are performed */
+    enum Engine {
+        THREADS, VIRTUAL_THREADS, ASYNC;
+    }
+
     public static void main(final String[] args) {
+        run(args, null);
+    }
+
+    /**
+     * Run the benchmark described by the command line
+     * @param args the command line
+     * @param agent the connection to the coordinator if the benchmark is run
+     *        as an agent of a distributed run or null
+     */
+    private static void run(final String[] args, final Agent agent) {
         /* setup the command line options */
         final Options ops = createOptions();
 
-        /* set the defaults */
-        int numBinaries = 1;
-        long size = 1024;
-        int numThreads = 1;
-        Action action = Action.INGEST;
+        /* the settings of the run, which are the defaults of the phases of a scenario */
+        final Phase phase = new Phase();
         URI fedoraUri = URI.create("http://localhost:8080");
-        String logPath = "durations.log";
-        TransactionMode txMode = TransactionMode.NONE;
-        int parallelTx = 1;
-        int actionsPerTx = 0;
         boolean preparationAsTx = true;
         boolean purge = true;
-        boolean propertyAction = false;
+        int prepThreads = 0;
+        int prepTxSize = 0;
+        String scenarioPath = null;
+        int coordinatorPort = 0;
+        int numAgents = 1;
+        int metricsPort = 0;
 
         /* and get the individual settings from the command line */
         final CommandLineParser parser = new BasicParser();
@@ -85,34 +124,49 @@ public class BenchTool {
                 printUsage(ops);
                 return;
             }
+            if (agent == null && cli.hasOption("ag")) {
+                /* the coordinator sends the command line the agent runs */
+                try (final Agent coordinated = Agent.connect(cli.getOptionValue("ag"))) {
+                    run(coordinated.getArgs(), coordinated);
+                } catch (final IOException e) {
+                    LOG.error("Unable to connect to the coordinator at {}", cli.getOptionValue("ag"), e);
+                }
+                return;
+            }
             if (cli.hasOption("f")) {
                 String uri = cli.getOptionValue("f");
                 uri = uri.replaceAll("/*$", "");
                 fedoraUri = URI.create(uri);
             }
             if (cli.hasOption("n")) {
-                numBinaries = Integer.parseInt(cli.getOptionValue("n"));
+                phase.setNumActions(Integer.parseInt(cli.getOptionValue("n")));
             }
             if (cli.hasOption("s")) {
-                size = getSizeFromArgument(cli.getOptionValue("s"));
+                phase.setSize(SizeDistribution.parse(cli.getOptionValue("s")));
             }
             if (cli.hasOption("a")) {
-                action = Action.valueOf(cli.getOptionValue("a").toUpperCase());
+                phase.setAction(Action.valueOf(cli.getOptionValue("a").toUpperCase()));
+            }
+            if (cli.hasOption("m")) {
+                phase.setMix(ActionMix.parse(cli.getOptionValue("m")));
             }
             if (cli.hasOption("t")) {
-                numThreads = Integer.parseInt(cli.getOptionValue("t"));
+                phase.setNumThreads(Integer.parseInt(cli.getOptionValue("t")));
             }
             if (cli.hasOption("l")) {
-                logPath = cli.getOptionValue("l");
+                phase.setLogPath(cli.getOptionValue("l"));
             }
             if (cli.hasOption("tx")) {
-                txMode = TransactionMode.valueOf(cli.getOptionValue("tx").toUpperCase());
+                phase.setTxMode(TransactionMode.valueOf(cli.getOptionValue("tx").toUpperCase()));
             }
             if (cli.hasOption("ta")) {
-                actionsPerTx = Integer.parseInt(cli.getOptionValue("ta"));
+                phase.setActionsPerTx(Integer.parseInt(cli.getOptionValue("ta")));
             }
             if (cli.hasOption("tp")) {
-                parallelTx = Integer.parseInt(cli.getOptionValue("tp"));
+                phase.setParallelTx(Integer.parseInt(cli.getOptionValue("tp")));
+            }
+            if (cli.hasOption("txp")) {
+                phase.setTxPoolSize(Integer.parseInt(cli.getOptionValue("txp")));
             }
             if (cli.hasOption("pt")) {
                 preparationAsTx = Boolean.parseBoolean(cli.getOptionValue("pt"));
@@ -121,45 +175,196 @@ public class BenchTool {
                 purge = false;
             }
             if (cli.hasOption("pp")) {
-                propertyAction = true;
+                phase.setPropertyAction(true);
+            }
+            if (cli.hasOption("r")) {
+                phase.setRate(Double.parseDouble(cli.getOptionValue("r")));
+            }
+            if (cli.hasOption("ps")) {
+                phase.setPoisson(true);
+            }
+            if (cli.hasOption("d")) {
+                phase.setDuration(getDurationFromArgument(cli.getOptionValue("d")));
+            }
+            if (cli.hasOption("w")) {
+                phase.setWarmup(getDurationFromArgument(cli.getOptionValue("w")));
+            }
+            if (cli.hasOption("c")) {
+                phase.setCooldown(getDurationFromArgument(cli.getOptionValue("c")));
+            }
+            if (cli.hasOption("vt")) {
+                phase.setEngine(Engine.VIRTUAL_THREADS);
+            }
+            if (cli.hasOption("as")) {
+                phase.setEngine(Engine.ASYNC);
+            }
+            if (cli.hasOption("io")) {
+                ioThreads = Integer.parseInt(cli.getOptionValue("io"));
+            }
+            if (cli.hasOption("pth")) {
+                prepThreads = Integer.parseInt(cli.getOptionValue("pth"));
+            }
+            if (cli.hasOption("pts")) {
+                prepTxSize = Integer.parseInt(cli.getOptionValue("pts"));
+            }
+            if (cli.hasOption("sc")) {
+                scenarioPath = cli.getOptionValue("sc");
+            }
+            if (cli.hasOption("mp")) {
+                metricsPort = Integer.parseInt(cli.getOptionValue("mp"));
+            }
+            if (cli.hasOption("ri")) {
+                phase.setReportInterval(getDurationFromArgument(cli.getOptionValue("ri")));
+            }
+            if (cli.hasOption("rl")) {
+                phase.setReportLogPath(cli.getOptionValue("rl"));
+            }
+            if (cli.hasOption("fx")) {
+                phase.setFixity(true);
+            }
+            if (cli.hasOption("src")) {
+                phase.setSourcePath(cli.getOptionValue("src"));
+            }
+            if (cli.hasOption("ol")) {
+                phase.setLayout(ObjectLayout.parse(cli.getOptionValue("ol")));
+            }
+            if (cli.hasOption("td")) {
+                phase.setTargetDepth(Integer.parseInt(cli.getOptionValue("td")));
+            }
+            if (cli.hasOption("ch")) {
+                phase.setChildren(getCountsFromArgument(cli.getOptionValue("ch")));
+            }
+            if (agent == null && cli.hasOption("co")) {
+                coordinatorPort = Integer.parseInt(cli.getOptionValue("co"));
+            }
+            if (cli.hasOption("na")) {
+                numAgents = Integer.parseInt(cli.getOptionValue("na"));
+            }
+            if (prepThreads <= 0) {
+                prepThreads = phase.getNumThreads();
             }
-            final HttpClientBuilder clientBuilder =
-                    HttpClients.custom().setRedirectStrategy(new DefaultRedirectStrategy()).setRetryHandler(
-                            new StandardHttpRequestRetryHandler(0, false));
             if (cli.hasOption("u")) {
-                final BasicCredentialsProvider cred = new BasicCredentialsProvider();
-                cred.setCredentials(new AuthScope(fedoraUri.getHost(), fedoraUri.getPort()),
+                credentials = new BasicCredentialsProvider();
+                credentials.setCredentials(new AuthScope(fedoraUri.getHost(), fedoraUri.getPort()),
                         new UsernamePasswordCredentials(cli.getOptionValue('u'), cli.getOptionValue('p')));
-                clientBuilder.setDefaultCredentialsProvider(cred);
-
             }
-            clientBuilder.setMaxConnTotal(numThreads);
-            clientBuilder.setMaxConnPerRoute(numThreads);
-            httpClient = clientBuilder.build();
-
         } catch (final ParseException e) {
             LOG.error("Unable to parse command line", e);
+        } catch (final IOException e) {
+            LOG.error("Unable to read the sizes of the binaries", e);
+            return;
+        }
+
+        final String scenarioText;
+        final Scenario scenario;
+        try {
+            /* agents get the scenario from the coordinator, which may have read it from a file of its own */
+            String text = agent == null ? null : agent.getScenario();
+            if (text == null && scenarioPath != null) {
+                text = FileUtils.readFileToString(new File(scenarioPath), "UTF-8");
+            }
+            scenarioText = text;
+            if (scenarioText == null) {
+                scenario = Scenario.singleRun(phase, prepThreads, prepTxSize);
+            } else {
+                phase.setPrepTxSize(prepTxSize);
+                scenario = Scenario.parse(new StringReader(scenarioText), scenarioPath, phase);
+            }
+        } catch (final IOException e) {
+            LOG.error("Unable to read the scenario {}: {}", scenarioPath, e.getMessage());
+            return;
+        }
+        if (agent != null) {
+            /* agents on the same machine run the same command line, so they get files and ports of their own */
+            scenario.suffixOutputs("-agent" + (agent.getIndex() + 1));
+            if (metricsPort > 0) {
+                metricsPort += agent.getIndex();
+            }
         }
 
+        httpClient = createHttpClient(scenario.getMaxThreads());
+        final FedoraVersion version;
         try {
-            /* start the benchmark runner with the given parameters */
-            final FCRepoBenchRunner runner =
-                    new FCRepoBenchRunner(getFedoraVersion(fedoraUri), fedoraUri, action, numBinaries, size,
-                            numThreads, logPath, txMode, actionsPerTx, parallelTx, preparationAsTx, propertyAction,
-                            purge);
-            runner.runBenchmark();
+            version = getFedoraVersion(fedoraUri);
         } catch (final IOException e) {
             LOG.error("Unable to connect to a Fedora instance at {}", fedoraUri, e);
+            return;
+        }
+
+        if (coordinatorPort > 0) {
+            scenario.resolve(version);
+            try {
+                new Coordinator(coordinatorPort, numAgents, args, scenarioText).run(scenario);
+            } catch (final IOException e) {
+                LOG.error("The distributed run failed: {}", e.getMessage(), e);
+            }
+            return;
+        }
+        try {
+            if (metricsPort > 0) {
+                metrics = new MetricsEndpoint(metricsPort, connManager);
+            }
+            /* run the phases of the scenario with the given parameters */
+            scenario.run(version, fedoraUri, preparationAsTx, purge, agent);
+        } catch (final IOException e) {
+            LOG.error("The run failed: {}", e.getMessage(), e);
+        } finally {
+            if (metrics != null) {
+                metrics.close();
+                metrics = null;
+            }
+        }
+    }
+
+    /**
+     * Create the blocking client, which is used for preparation and purge as
+     * well
+     * @param maxConnections the maximum number of concurrent requests
+     */
+    private static CloseableHttpClient createHttpClient(final int maxConnections) {
+        /* time the phases of every request, see RequestTimings */
+        final Registry<ConnectionSocketFactory> socketFactories =
+                RegistryBuilder.<ConnectionSocketFactory> create().register("http",
+                        new TimingSocketFactory(PlainConnectionSocketFactory.getSocketFactory())).register(
+                        "https", new TimingSocketFactory(SSLConnectionSocketFactory.getSocketFactory())).build();
+        connManager = new PoolingHttpClientConnectionManager(socketFactories);
+        final HttpClientBuilder clientBuilder =
+                HttpClients.custom().setRedirectStrategy(new DefaultRedirectStrategy()).setRetryHandler(
+                        new StandardHttpRequestRetryHandler(0, false)).setConnectionManager(connManager)
+                        .addInterceptorFirst(new RequestTimingInterceptor());
+        if (credentials != null) {
+            clientBuilder.setDefaultCredentialsProvider(credentials);
+        }
+        connManager.setMaxTotal(maxConnections);
+        connManager.setDefaultMaxPerRoute(maxConnections);
+        return clientBuilder.build();
+    }
+
+    /**
+     * Create and start a client for the non-blocking engine, which keeps a
+     * connection for every concurrent request, served by a few I/O threads
+     * @param maxConnections the maximum number of concurrent requests
+     */
+    static CloseableHttpAsyncClient createAsyncClient(final int maxConnections) {
+        final HttpAsyncClientBuilder asyncBuilder =
+                HttpAsyncClients.custom().setRedirectStrategy(new DefaultRedirectStrategy())
+                        .setMaxConnTotal(maxConnections).setMaxConnPerRoute(maxConnections)
+                        .setDefaultIOReactorConfig(IOReactorConfig.custom().setIoThreadCount(ioThreads).build());
+        if (credentials != null) {
+            asyncBuilder.setDefaultCredentialsProvider(credentials);
         }
+        final CloseableHttpAsyncClient client = asyncBuilder.build();
+        client.start();
+        return client;
     }
 
-    private static long getSizeFromArgument(final String optionValue) {
+    static long getSizeFromArgument(final String optionValue) {
         final Matcher m = Pattern.compile("^(\\d*)([kKmMgGtT]{0,1})$").matcher(optionValue);
         if (!m.find()) {
             throw new IllegalArgumentException("Size " + optionValue + " could not be parsed");
         }
         final long size = Long.parseLong(m.group(1));
-        if (m.groupCount() == 1) {
+        if (m.group(2).isEmpty()) {
             return size;
         }
         final char postfix = m.group(2).charAt(0);
@@ -181,6 +386,47 @@ public class BenchTool {
         }
     }
 
+    static long getDurationFromArgument(final String optionValue) {
+        final Matcher m = Pattern.compile("^(\\d+)(ms|s|m|h){0,1}$").matcher(optionValue);
+        if (!m.find()) {
+            throw new IllegalArgumentException("Duration " + optionValue + " could not be parsed");
+        }
+        final long duration = Long.parseLong(m.group(1));
+        if (m.group(2) == null) {
+            return TimeUnit.SECONDS.toMillis(duration);
+        }
+        switch (m.group(2)) {
+        case "ms":
+            return duration;
+        case "m":
+            return TimeUnit.MINUTES.toMillis(duration);
+        case "h":
+            return TimeUnit.HOURS.toMillis(duration);
+        default:
+            return TimeUnit.SECONDS.toMillis(duration);
+        }
+    }
+
+    /* counts are decimal, unlike sizes: 1k children are 1000 children */
+    static long[] getCountsFromArgument(final String optionValue) {
+        final String[] values = optionValue.split(",");
+        final long[] counts = new long[values.length];
+        final Pattern pattern = Pattern.compile("^(\\d+)([kKmM]{0,1})$");
+        for (int i = 0; i < values.length; i++) {
+            final Matcher m = pattern.matcher(values[i].trim());
+            if (!m.find()) {
+                throw new IllegalArgumentException("Count " + values[i] + " could not be parsed");
+            }
+            counts[i] = Long.parseLong(m.group(1));
+            if (m.group(2).equalsIgnoreCase("k")) {
+                counts[i] *= 1000L;
+            } else if (m.group(2).equalsIgnoreCase("m")) {
+                counts[i] *= 1000000L;
+            }
+        }
+        return counts;
+    }
+
     @SuppressWarnings("static-access")
     private static Options createOptions() {
         final Options ops = new Options();
@@ -192,7 +438,7 @@ public class BenchTool {
         ops.addOption(OptionBuilder
                 .withArgName("size")
                 .withDescription(
-                        "The size of the individual binaries used. Sizes with a k,m,g or t postfix will be interpreted as kilo-, mega-, giga- and terabyte [default=1024]")
+                        "The size of the individual binaries used. Sizes with a k,m,g or t postfix will be interpreted as kilo-, mega-, giga- and terabyte. Sizes can be drawn from a distribution as well: uniform:<min>-<max>, lognormal:<median>,<shape> or file:<path> with the sizes of a real corpus, one per line and optionally followed by the number of binaries of that size [default=1024]")
                         .withLongOpt("size").hasArg().create('s'));
         ops.addOption(OptionBuilder.withArgName("num-threads").withDescription(
                 "The number of threads used for performing all actions. [default=1]").withLongOpt("num-threads")
@@ -204,8 +450,13 @@ public class BenchTool {
         ops.addOption(OptionBuilder
                 .withArgName("action")
                 .withDescription(
-                        "The action to perform. Can be one of ingest, read, update, delete, sparql_select or sparql_insert. [default=ingest]")
+                        "The action to perform. Can be one of ingest, read, update, delete, list, sparql_select or sparql_insert. [default=ingest]")
                         .withLongOpt("action").hasArg().create('a'));
+        ops.addOption(OptionBuilder
+                .withArgName("weights")
+                .withDescription(
+                        "Perform a weighted mix of actions on the same objects instead of a single action, e.g. read=70,update=20,ingest=5,update_property=5. Overrides the action")
+                        .withLongOpt("mix").hasArg().create('m'));
         ops.addOption(OptionBuilder.withArgName("log").withDescription(
                 "The log file to which the durations will get written. [default=durations.log]").withLongOpt("log")
                 .hasArg().create('l'));
@@ -230,6 +481,101 @@ public class BenchTool {
         ops.addOption(OptionBuilder.withDescription(
                 "Do not purge the data after the benchmark. (For debugging purposes)").withLongOpt("no-purge").create(
                         'g'));
+        ops.addOption(OptionBuilder
+                .withArgName("ops-per-sec")
+                .withDescription(
+                        "Run open loop: start actions at this rate regardless of how fast Fedora responds and measure the latency from the intended start time. Values <= 0 disable the open loop mode. [default=0]")
+                        .withLongOpt("rate").hasArg().create('r'));
+        ops.addOption(OptionBuilder.withDescription(
+                "Use Poisson distributed arrivals with the mean given by --rate instead of a constant rate")
+                .withLongOpt("poisson").create("ps"));
+        ops.addOption(OptionBuilder
+                .withArgName("duration")
+                .withDescription(
+                        "Run actions continuously for this long instead of performing a fixed number of actions. The number of actions then sets the number of objects the actions cycle through. Durations with a ms,s,m or h postfix will be interpreted as milli-, seconds, minutes and hours, plain numbers as seconds [default=0]")
+                        .withLongOpt("duration").hasArg().create('d'));
+        ops.addOption(OptionBuilder.withArgName("duration").withDescription(
+                "Run actions for this long before the measured duration starts. Only used with --duration [default=0]")
+                .withLongOpt("warmup").hasArg().create('w'));
+        ops.addOption(OptionBuilder.withArgName("duration").withDescription(
+                "Keep running actions for this long after the measured duration has ended. Only used with --duration [default=0]")
+                .withLongOpt("cooldown").hasArg().create('c'));
+        ops.addOption(OptionBuilder.withDescription(
+                "Perform the actions with the non-blocking engine. The number of threads then sets the number of concurrent requests, which are multiplexed over a few I/O threads")
+                .withLongOpt("async").create("as"));
+        ops.addOption(OptionBuilder.withDescription(
+                "Perform every action on its own virtual thread. Requires Java 21 or later. The number of threads then sets the number of actions in flight")
+                .withLongOpt("virtual-threads").create("vt"));
+        ops.addOption(OptionBuilder.withArgName("num-threads").withDescription(
+                "The number of threads used for preparing and purging the objects. [default=num-threads]")
+                .withLongOpt("prep-threads").hasArg().create("pth"));
+        ops.addOption(OptionBuilder
+                .withArgName("num-objects")
+                .withDescription(
+                        "Maximum number of objects prepared or purged per preparation transaction. Values <= 0 use a single transaction. [default=0]")
+                        .withLongOpt("prep-tx-size").hasArg().create("pts"));
+        ops.addOption(OptionBuilder
+                .withArgName("file")
+                .withDescription(
+                        "Run the phases described by a JSON or YAML scenario file against a single prepared dataset. The other settings are used as the defaults of the phases")
+                        .withLongOpt("scenario").hasArg().create("sc"));
+        ops.addOption(OptionBuilder
+                .withArgName("duration")
+                .withDescription(
+                        "Report the throughput, errors, actions in flight and latency of every interval of this length while the actions are running. 0 disables the reports [default=10s]")
+                        .withLongOpt("report-interval").hasArg().create("ri"));
+        ops.addOption(OptionBuilder.withArgName("file").withDescription(
+                "Write the interval reports to this CSV file as well").withLongOpt("report-log").hasArg()
+                .create("rl"));
+        ops.addOption(OptionBuilder
+                .withArgName("port")
+                .withDescription(
+                        "Serve the live metrics of the run in the Prometheus text format at http://<host>:<port>/metrics. The metrics are exposed as JMX MXBeans below org.fcrepo.bench as well")
+                        .withLongOpt("metrics-port").hasArg().create("mp"));
+        ops.addOption(OptionBuilder
+                .withArgName("port")
+                .withDescription(
+                        "Coordinate a distributed run: wait for the agents to connect on this port, send them the settings of the run and report their combined results. The coordinator does not generate load itself")
+                        .withLongOpt("coordinator").hasArg().create("co"));
+        ops.addOption(OptionBuilder.withArgName("num-agents").withDescription(
+                "The number of agents taking part in a distributed run. [default=1]").withLongOpt("num-agents")
+                .hasArg().create("na"));
+        ops.addOption(OptionBuilder
+                .withArgName("host:port")
+                .withDescription(
+                        "Generate load as an agent of the coordinator at the given address. All the other settings are received from the coordinator")
+                        .withLongOpt("agent").hasArg().create("ag"));
+        ops.addOption(OptionBuilder.withArgName("num-io-threads").withDescription(
+                "The number of I/O threads used by the non-blocking engine. [default=number of processors]")
+                .withLongOpt("io-threads").hasArg().create("io"));
+        ops.addOption(OptionBuilder.withDescription(
+                "Send the MD5 digest of every datastream written for Fedora to verify and check the digest of every datastream read against the payload generated for its pid and size. Computing the digests is part of the measured latency")
+                .withLongOpt("fixity").create("fx"));
+        ops.addOption(OptionBuilder
+                .withArgName("path")
+                .withDescription(
+                        "Ingest the files in this directory or listed in this manifest, one path per line, instead of generated payloads of the given size. The files are ingested in turn and started over once all of them have been ingested")
+                        .withLongOpt("source").hasArg().create("src"));
+        ops.addOption(OptionBuilder
+                .withArgName("layout")
+                .withDescription(
+                        "Where the objects are placed: flat, tree:<depth>x<fan-out> for objects containing each other, pairtree:<levels> for pairtree containers named after the pids, or both joined by +. Fedora 4 only [default=flat]")
+                        .withLongOpt("layout").hasArg().create("ol"));
+        ops.addOption(OptionBuilder
+                .withArgName("depth")
+                .withDescription(
+                        "Perform the actions on the objects at this depth of the tree only. Objects created by the actions are placed below the objects one level up. 0 uses all the objects [default=0]")
+                        .withLongOpt("target-depth").hasArg().create("td"));
+        ops.addOption(OptionBuilder
+                .withArgName("counts")
+                .withDescription(
+                        "The number of children of the containers listed by the list action. A comma separated list prepares a container of each size, e.g. 1k,10k,100k,1m, and reports the latency against the number of children [default=1000]")
+                        .withLongOpt("children").hasArg().create("ch"));
+        ops.addOption(OptionBuilder
+                .withArgName("num-tx")
+                .withDescription(
+                        "Keep this many transactions open ahead of the actions, refilled and kept alive in the background, so that actions bind to a ready transaction instead of waiting for its creation. Fedora 4 only. 0 creates the transactions on demand [default=0]")
+                        .withLongOpt("tx-pool").hasArg().create("txp"));
         ops.addOption("h", "help", false, "print the help screen");
         return ops;
     }
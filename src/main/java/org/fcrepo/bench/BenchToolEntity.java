@@ -4,24 +4,128 @@
 
 package org.fcrepo.bench;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
 
 /**
  * @author frank asseg
  */
-public class BenchToolEntity extends InputStreamEntity {
+public class BenchToolEntity extends AbstractHttpEntity implements HttpAsyncContentProducer {
+
+    private final long size;
+
+    private final byte[] slice;
+
+    /* the seed of a reproducible payload or 0 */
+    private final long seed;
+
+    /* the payload currently produced for a non-blocking connection */
+    private BenchToolInputStream production;
 
     public BenchToolEntity(long size, byte[] slice) {
-        super(new BenchToolInputStream(size, slice), size, ContentType.APPLICATION_OCTET_STREAM);
+        this(size, slice, 0);
+    }
+
+    /**
+     * @param seed the seed of a reproducible payload, whose digest can be
+     *        computed before it is sent, or 0
+     */
+    public BenchToolEntity(final long size, final byte[] slice, final long seed) {
+        super();
+        this.size = size;
+        this.slice = slice;
+        this.seed = seed;
+        setContentType(ContentType.APPLICATION_OCTET_STREAM.toString());
+    }
+
+    /**
+     * Compute the digest of a reproducible payload without buffering it
+     * @param digest the digest to feed the payload into
+     * @return the digest of the payload
+     */
+    public byte[] digest(final MessageDigest digest) {
+        if (seed == 0) {
+            throw new IllegalStateException("The digest of a payload which is not reproducible is unknown");
+        }
+        new BenchToolInputStream(size, slice, seed).update(digest);
+        return digest.digest();
     }
 
     /*
      * (non-Javadoc)
-     * @see org.apache.http.entity.InputStreamEntity#isRepeatable()
+     * @see org.apache.http.HttpEntity#isRepeatable()
      */
     @Override
     public boolean isRepeatable() {
         return true;
     }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.HttpEntity#getContentLength()
+     */
+    @Override
+    public long getContentLength() {
+        return size;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.HttpEntity#getContent()
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        return new BenchToolInputStream(size, slice, seed);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.HttpEntity#writeTo(java.io.OutputStream)
+     */
+    @Override
+    public void writeTo(final OutputStream outstream) throws IOException {
+        new BenchToolInputStream(size, slice, seed).writeTo(outstream);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.nio.entity.HttpAsyncContentProducer#produceContent(org.apache.http.nio.ContentEncoder,
+     * org.apache.http.nio.IOControl)
+     */
+    @Override
+    public void produceContent(final ContentEncoder encoder, final IOControl ioctrl) throws IOException {
+        if (production == null) {
+            production = new BenchToolInputStream(size, slice, seed);
+        }
+        if (production.writeTo(encoder)) {
+            encoder.complete();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        /* a repeated request produces the payload from the start */
+        production = null;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.HttpEntity#isStreaming()
+     */
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
 }
@@ -3,7 +3,24 @@ package org.fcrepo.bench;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.concurrent.ThreadLocalRandom;
 
+import org.apache.http.nio.ContentEncoder;
+
+/**
+ * Generates a payload of the given size by copying segments of a pre-generated
+ * random slice. The slice is used as a ring: once the end of the slice has
+ * been reached copying continues at a random position in its first half, so
+ * that the generated bytes do not repeat with a fixed period. The random
+ * positions are drawn from the calling thread's random state and no memory
+ * is allocated while reading. Payloads which have to be reproduced, e.g. to
+ * compute their digest before sending them, draw the positions from a seed
+ * instead.
+ */
 public class BenchToolInputStream extends InputStream {
 
     private final long size;
@@ -16,36 +33,165 @@ public class BenchToolInputStream extends InputStream {
 
     private int slicePos;
 
+    /* a view of the slice for writing to non-blocking channels */
+    private ByteBuffer sliceBuffer;
+
+    /* the state of the xorshift generator of reproducible payloads, 0 if the payload is not reproducible */
+    private long state;
+
     public BenchToolInputStream(long size, byte[] slice) {
+        this(size, slice, 0);
+    }
+
+    /**
+     * @param seed the seed of a reproducible payload, every stream created
+     *        with the same seed, size and slice generates the same bytes. 0
+     *        if the payload does not have to be reproducible
+     */
+    public BenchToolInputStream(final long size, final byte[] slice, final long seed) {
         super();
         this.size = size;
         this.slice = slice;
         this.sliceLen = slice.length;
+        this.state = seed;
+        this.slicePos = nextSlicePos();
     }
 
     @Override
     public int read() throws IOException {
-        if (slicePos == 0 || slicePos == sliceLen - 1) {
-            slicePos = BenchTool.RNG.nextInt((int) Math.floor(sliceLen / 2f));
+        if (bytesRead >= size) {
+            return -1;
         }
-        return slice[slicePos++];
+        if (slicePos == sliceLen) {
+            slicePos = nextSlicePos();
+        }
+        bytesRead++;
+        return slice[slicePos++] & 0xff;
     }
 
     @Override
     public int read(byte[] b) throws IOException {
-        int i = 0;
-        for (; i < b.length; ++i) {
-            b[i] = (byte) read();
-        }
-        return i;
+        return read(b, 0, b.length);
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        int i = 0;
-        for (; i < len; ++i) {
-            b[i] = (byte) read();
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (bytesRead >= size) {
+            return -1;
+        }
+        final int total = (int) Math.min(len, size - bytesRead);
+        int copied = 0;
+        while (copied < total) {
+            final int n = nextSegment(total - copied);
+            System.arraycopy(slice, slicePos, b, off + copied, n);
+            slicePos += n;
+            copied += n;
+        }
+        bytesRead += total;
+        return total;
+    }
+
+    /**
+     * Write the remaining bytes of the payload to the given stream directly
+     * from the slice, without copying them into an intermediate buffer
+     * @param out the stream to write to
+     * @throws IOException
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        while (bytesRead < size) {
+            final int n = nextSegment((int) Math.min(Integer.MAX_VALUE, size - bytesRead));
+            out.write(slice, slicePos, n);
+            slicePos += n;
+            bytesRead += n;
+        }
+    }
+
+    /**
+     * Feed the remaining bytes of the payload into the given digest directly
+     * from the slice
+     * @param digest the digest to update
+     */
+    public void update(final MessageDigest digest) {
+        while (bytesRead < size) {
+            final int n = nextSegment((int) Math.min(Integer.MAX_VALUE, size - bytesRead));
+            digest.update(slice, slicePos, n);
+            slicePos += n;
+            bytesRead += n;
+        }
+    }
+
+    /**
+     * Write as many of the remaining bytes of the payload to the given
+     * encoder as it accepts without blocking, directly from the slice
+     * @param encoder the encoder of a non-blocking connection
+     * @return true if the whole payload has been written
+     * @throws IOException
+     */
+    public boolean writeTo(final ContentEncoder encoder) throws IOException {
+        if (sliceBuffer == null) {
+            sliceBuffer = ByteBuffer.wrap(slice);
+        }
+        while (bytesRead < size) {
+            final int n = nextSegment((int) Math.min(Integer.MAX_VALUE, size - bytesRead));
+            /* called on Buffer, since newer JDKs override limit() and position() in ByteBuffer */
+            ((Buffer) sliceBuffer).limit(slicePos + n).position(slicePos);
+            final int written = encoder.write(sliceBuffer);
+            slicePos += written;
+            bytesRead += written;
+            if (written < n) {
+                /* the channel is full, continue once it becomes writable again */
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        final long skipped = Math.min(n, size - bytesRead);
+        long left = skipped;
+        while (left > 0) {
+            final int len = nextSegment((int) Math.min(Integer.MAX_VALUE, left));
+            slicePos += len;
+            left -= len;
+        }
+        bytesRead += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, size - bytesRead);
+    }
+
+    /**
+     * @return the number of bytes which can be copied from the current slice
+     *         position, moving on to a new random position if the end of the
+     *         slice has been reached
+     */
+    private int nextSegment(final int max) {
+        if (slicePos == sliceLen) {
+            slicePos = nextSlicePos();
+        }
+        return Math.min(max, sliceLen - slicePos);
+    }
+
+    private int nextSlicePos() {
+        if (state == 0) {
+            return ThreadLocalRandom.current().nextInt(sliceLen / 2);
         }
-        return i;
+        state ^= state << 13;
+        state ^= state >>> 7;
+        state ^= state << 17;
+        return (int) ((state >>> 1) % (sliceLen / 2));
     }
 }
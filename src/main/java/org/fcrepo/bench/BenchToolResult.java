@@ -4,6 +4,8 @@
 
 package org.fcrepo.bench;
 
+import org.fcrepo.bench.BenchTool.Action;
+
 /**
  * @author frank asseg
  */
@@ -15,15 +17,58 @@ public class BenchToolResult {
 
     private final long size;
 
+    private final long timeToFirstByte;
+
+    private final Action action;
+
+    private final long start;
+
+    private final int status;
+
+    /* the number of children listed and the time spent parsing them, -1 unless a container has been listed */
+    private final long children;
+
+    private final long parseTime;
+
     public BenchToolResult(float throughput, long duration, long size) {
+        this(throughput, duration, size, -1);
+    }
+
+    public BenchToolResult(float throughput, long duration, long size, long timeToFirstByte) {
+        this(throughput, duration, size, timeToFirstByte, null, System.nanoTime() - duration, -1);
+    }
+
+    /**
+     * @param action the action performed
+     * @param start the start of the request as returned by
+     *        {@link System#nanoTime()}
+     * @param status the HTTP status of the response
+     */
+    public BenchToolResult(float throughput, long duration, long size, long timeToFirstByte, Action action,
+            long start, int status) {
+        this(throughput, duration, size, timeToFirstByte, action, start, status, -1, -1);
+    }
+
+    /**
+     * @param children the number of children of the container listed
+     * @param parseTime the time spent parsing the listing in nanoseconds
+     */
+    public BenchToolResult(float throughput, long duration, long size, long timeToFirstByte, Action action,
+            long start, int status, long children, long parseTime) {
         super();
         this.throughput = throughput;
         this.duration = duration;
         this.size = size;
+        this.timeToFirstByte = timeToFirstByte;
+        this.action = action;
+        this.start = start;
+        this.status = status;
+        this.children = children;
+        this.parseTime = parseTime;
     }
 
     /**
-     * @return the duration
+     * @return the duration in nanoseconds
      */
     public long getDuration() {
         return duration;
@@ -42,4 +87,48 @@ public class BenchToolResult {
     public long getSize() {
         return size;
     }
+
+    /**
+     * @return the time to the first byte of the response in nanoseconds or
+     *         -1 if it has not been measured
+     */
+    public long getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    /**
+     * @return the action performed or null if unknown
+     */
+    public Action getAction() {
+        return action;
+    }
+
+    /**
+     * @return the start of the request as returned by
+     *         {@link System#nanoTime()}
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the HTTP status of the response or -1 if unknown
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the number of children of the container listed or -1
+     */
+    public long getChildren() {
+        return children;
+    }
+
+    /**
+     * @return the time spent parsing the listing in nanoseconds or -1
+     */
+    public long getParseTime() {
+        return parseTime;
+    }
 }
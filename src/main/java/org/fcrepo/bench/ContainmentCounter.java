@@ -0,0 +1,142 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Counts the children of a container while its N-Triples representation is
+ * read, without keeping the triples or building a model of them, so that
+ * listing containers of a million children costs a single pass over the
+ * bytes of the response. Only the predicate of every triple is looked at,
+ * triples linking the container to a child are counted. The time spent
+ * parsing is tracked separately from the time spent waiting for the bytes.
+ */
+public class ContainmentCounter {
+
+    /* the predicates linking a container to its children, ldp:contains and the one of earlier Fedora 4 versions */
+    private static final byte[][] PREDICATES = new byte[][] {
+        "http://www.w3.org/ns/ldp#contains".getBytes(StandardCharsets.US_ASCII),
+        "http://fedora.info/definitions/v4/repository#hasChild".getBytes(StandardCharsets.US_ASCII) };
+
+    private static final int ALL_PREDICATES = (1 << PREDICATES.length) - 1;
+
+    /* the positions within a triple, which can be split across the chunks of a response */
+    private static final int LINE_START = 0;
+
+    private static final int SUBJECT_IRI = 1;
+
+    private static final int SUBJECT_NODE = 2;
+
+    private static final int BEFORE_PREDICATE = 3;
+
+    private static final int PREDICATE = 4;
+
+    private static final int LINE_REST = 5;
+
+    private int state = LINE_START;
+
+    /* the predicates the IRI read so far is a prefix of, one bit per predicate */
+    private int candidates;
+
+    private int matched;
+
+    private long count;
+
+    private long parseNanos;
+
+    /**
+     * Parse the next chunk of the response body
+     * @param bytes the buffer holding the chunk
+     * @param offset the start of the chunk in the buffer
+     * @param length the length of the chunk
+     */
+    public void update(final byte[] bytes, final int offset, final int length) {
+        final long start = System.nanoTime();
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            final byte b = bytes[i];
+            switch (state) {
+            case LINE_START:
+                if (b == '<') {
+                    state = SUBJECT_IRI;
+                } else if (b == '_') {
+                    state = SUBJECT_NODE;
+                } else if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                    /* comments and anything else which is not a triple */
+                    state = LINE_REST;
+                }
+                break;
+            case SUBJECT_IRI:
+                while (i < end && bytes[i] != '>') {
+                    i++;
+                }
+                if (i < end) {
+                    state = BEFORE_PREDICATE;
+                }
+                break;
+            case SUBJECT_NODE:
+                if (b == ' ' || b == '\t') {
+                    state = BEFORE_PREDICATE;
+                }
+                break;
+            case BEFORE_PREDICATE:
+                if (b == '<') {
+                    state = PREDICATE;
+                    candidates = ALL_PREDICATES;
+                    matched = 0;
+                } else if (b != ' ' && b != '\t') {
+                    state = LINE_REST;
+                }
+                break;
+            case PREDICATE:
+                if (b == '>') {
+                    for (int p = 0; p < PREDICATES.length; p++) {
+                        if ((candidates & (1 << p)) != 0 && PREDICATES[p].length == matched) {
+                            count++;
+                        }
+                    }
+                    state = LINE_REST;
+                    break;
+                }
+                for (int p = 0; p < PREDICATES.length; p++) {
+                    if ((candidates & (1 << p)) != 0 &&
+                            (matched >= PREDICATES[p].length || PREDICATES[p][matched] != b)) {
+                        candidates &= ~(1 << p);
+                    }
+                }
+                matched++;
+                if (candidates == 0) {
+                    state = LINE_REST;
+                }
+                break;
+            default:
+                /* line breaks within literals are escaped, so a line is a triple */
+                while (i < end && bytes[i] != '\n') {
+                    i++;
+                }
+                if (i < end) {
+                    state = LINE_START;
+                }
+                break;
+            }
+        }
+        parseNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * @return the number of children counted so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the time spent parsing in nanoseconds
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.fcrepo.bench.BenchTool.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.icu.text.DecimalFormat;
+
+/**
+ * Coordinates a distributed run, in which several {@link Agent} processes
+ * generate the load, e.g. because a single machine can not saturate a Fedora
+ * cluster. The coordinator waits for the agents to connect, sends them the
+ * command line and scenario of the run together with disjoint ranges of
+ * pids, starts every phase once all the agents are ready for it and merges
+ * the latency histograms and counters of the agents into a combined report
+ * of each measured phase. The coordinator does not generate any load itself.
+ */
+public class Coordinator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Coordinator.class);
+
+    private static final DecimalFormat FORMAT = new DecimalFormat("###.##");
+
+    private final int port;
+
+    private final int numAgents;
+
+    private final String[] args;
+
+    /* null if the run is not described by a scenario file */
+    private final String scenarioText;
+
+    /**
+     * @param port the port the agents connect to
+     * @param numAgents the number of agents taking part in the run
+     * @param args the command line sent to the agents
+     * @param scenarioText the scenario sent to the agents or null
+     */
+    public Coordinator(final int port, final int numAgents, final String[] args, final String scenarioText) {
+        super();
+        if (numAgents < 1 || numAgents > 1 << (48 - Agent.RANGE_BITS)) {
+            throw new IllegalArgumentException("The number of agents has to be between 1 and " +
+                    (1 << (48 - Agent.RANGE_BITS)));
+        }
+        this.port = port;
+        this.numAgents = numAgents;
+        this.args = args;
+        this.scenarioText = scenarioText;
+    }
+
+    /**
+     * Run the phases of the scenario on all the agents
+     * @param scenario the scenario the agents run
+     */
+    public void run(final Scenario scenario) throws IOException {
+        final List<Connection> agents = new ArrayList<>(numAgents);
+        try {
+            accept(agents);
+            final List<Phase> phases = scenario.getPhases();
+            int num = 0;
+            for (final Phase phase : phases) {
+                num++;
+                /* the barrier: every agent has to be ready before any of them starts */
+                for (final Connection agent : agents) {
+                    agent.awaitReady(num);
+                }
+                LOG.info("Starting phase {} of {} on {} agent(s): {}", new Object[] { num, phases.size(),
+                        numAgents, phase });
+                for (final Connection agent : agents) {
+                    agent.start();
+                }
+                if (phase.getType() == Phase.Type.RUN) {
+                    final LatencyRecorder recorder = new LatencyRecorder();
+                    long testTime = 0;
+                    for (final Connection agent : agents) {
+                        testTime = Math.max(testTime, agent.receiveResults(recorder));
+                    }
+                    logResults(phase, recorder, testTime);
+                }
+            }
+            /* a last barrier, so the run ends once every agent has completed its last phase */
+            for (final Connection agent : agents) {
+                agent.awaitReady(phases.size() + 1);
+            }
+            for (final Connection agent : agents) {
+                agent.start();
+            }
+            LOG.info("All {} agent(s) have completed the run", numAgents);
+        } finally {
+            for (final Connection agent : agents) {
+                agent.socket.close();
+            }
+        }
+    }
+
+    private void accept(final List<Connection> agents) throws IOException {
+        final UUID preparedBase = UUID.randomUUID();
+        final UUID createdBase = UUID.randomUUID();
+        try (final ServerSocket server = new ServerSocket(port)) {
+            LOG.info("Waiting for {} agent(s) to connect on port {}", numAgents, port);
+            while (agents.size() < numAgents) {
+                final Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                final Connection agent = new Connection(socket);
+                agents.add(agent);
+                agent.sendSettings(agents.size() - 1, preparedBase, createdBase);
+                LOG.info("Agent {} of {} connected from {}", new Object[] { agents.size(), numAgents,
+                        socket.getRemoteSocketAddress() });
+            }
+        }
+    }
+
+    private void logResults(final Phase phase, final LatencyRecorder recorder, final long testTime) {
+        LOG.info("Combined results of {} agent(s) for {}", numAgents, phase);
+        recorder.logReport(testTime);
+
+        final Histogram hist = ActionStats.newHistogram();
+        long bytes = 0;
+        for (final Action action : phase.getActions()) {
+            final ActionStats stats = recorder.getStats(action);
+            stats.collect();
+            hist.add(stats.getTotal());
+            bytes += stats.getBytes();
+        }
+        final double throughput = bytes / (1024d * 1024d * (testTime / 1e9d));
+        LOG.info("Combined throughput was {} MB/sec", FORMAT.format(throughput));
+        LOG.info("Condensed results:");
+        LOG.info("{} {} {} {} {} {} {} {}", new Object[] { hist.getTotalCount(), phase.getSize(),
+                numAgents * phase.getNumThreads(), phase.describeWorkload(),
+                TimeUnit.NANOSECONDS.toMillis(testTime), FORMAT.format(throughput), numAgents + "-agents",
+                LatencyRecorder.formatPercentiles(hist) });
+    }
+
+    /**
+     * Write a text of arbitrary length, unlike
+     * {@link DataOutput#writeUTF(String)}
+     */
+    static void writeText(final DataOutput out, final String text) throws IOException {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a text written by {@link #writeText(DataOutput, String)}
+     */
+    static String readText(final DataInput in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The connection to a single agent
+     */
+    private class Connection {
+
+        private final Socket socket;
+
+        private final DataInputStream in;
+
+        private final DataOutputStream out;
+
+        private Connection(final Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        private void sendSettings(final int index, final UUID preparedBase, final UUID createdBase)
+                throws IOException {
+            out.writeInt(index);
+            out.writeInt(numAgents);
+            out.writeLong(preparedBase.getMostSignificantBits());
+            out.writeLong(preparedBase.getLeastSignificantBits());
+            out.writeLong(createdBase.getMostSignificantBits());
+            out.writeLong(createdBase.getLeastSignificantBits());
+            out.writeInt(args.length);
+            for (final String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.writeBoolean(scenarioText != null);
+            if (scenarioText != null) {
+                writeText(out, scenarioText);
+            }
+            out.flush();
+        }
+
+        private void awaitReady(final int phase) throws IOException {
+            final int ready;
+            try {
+                ready = in.readInt();
+            } catch (final EOFException e) {
+                throw new IOException("Agent at " + socket.getRemoteSocketAddress() +
+                        " disconnected before phase " + phase, e);
+            }
+            if (ready != phase) {
+                throw new IOException("Agent at " + socket.getRemoteSocketAddress() + " is ready for phase " +
+                        ready + " instead of " + phase);
+            }
+        }
+
+        private void start() throws IOException {
+            out.writeBoolean(true);
+            out.flush();
+        }
+
+        /**
+         * @return the length of the agent's measured phase in nanoseconds
+         */
+        private long receiveResults(final LatencyRecorder recorder) throws IOException {
+            try {
+                final long testTime = in.readLong();
+                recorder.merge(in);
+                return testTime;
+            } catch (final EOFException e) {
+                throw new IOException("Agent at " + socket.getRemoteSocketAddress() +
+                        " disconnected before sending its results", e);
+            }
+        }
+    }
+}
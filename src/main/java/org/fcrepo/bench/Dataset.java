@@ -0,0 +1,322 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import static org.fcrepo.bench.TransactionStateManager.TransactionMode.COMMIT;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.fcrepo.bench.BenchTool.Action;
+import org.fcrepo.bench.BenchTool.FedoraVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The objects the phases of a {@link Scenario} are performed on. The prepared
+ * objects are created by the preparation phases and shared by all the
+ * following phases, while the objects created by the workers of consuming
+ * actions are tracked separately, so that all of them can be purged at the
+ * end. Only the dispatching thread of a phase hands out pids, which are the
+ * paths of the objects below /objects as given by their {@link ObjectLayout}.
+ */
+public class Dataset {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Dataset.class);
+
+    /* used for preparation and purge */
+    private final FedoraRestClient fedora;
+
+    /* null if preparation is not performed in transactions */
+    private final TransactionStateManager txManager;
+
+    /* the pids of the prepared objects */
+    private final PidGenerator prepared;
+
+    /* the pids of the objects created by the workers */
+    private final PidGenerator created;
+
+    private final ObjectLayout layout;
+
+    private final ObjectLayout.Paths preparedPaths;
+
+    private final ObjectLayout.Paths createdPaths;
+
+    /* the ranges of created objects which are not deleted along with a tree of prepared objects */
+    private final List<long[]> createdRanges = new ArrayList<>();
+
+    /* the number of children of the containers listed, null unless containers are listed */
+    private long[] children;
+
+    /* the first prepared objects are the containers, filled with children in turn */
+    private int numContainers;
+
+    private final boolean shared;
+
+    /* the digests of the datastreams written, shared by all the phases */
+    private final Fixity fixity = new Fixity();
+
+    private long numPrepared;
+
+    private long numCreated;
+
+    /**
+     * @param preparationAsTx whether to prepare and purge the objects in
+     *        transactions if the version of Fedora supports them
+     * @param shared whether the prepared objects are shared by several
+     *        phases, in which case consuming actions never use them
+     * @param layout where the objects are placed
+     */
+    public Dataset(final FedoraVersion version, final URI fedoraUri, final boolean preparationAsTx,
+            final boolean shared, final ObjectLayout layout) throws IOException {
+        this(version, fedoraUri, preparationAsTx, shared, layout, new PidGenerator(), new PidGenerator());
+    }
+
+    /**
+     * @param prepared the generator of the pids of the prepared objects
+     * @param created the generator of the pids of the objects created by the
+     *        workers
+     */
+    public Dataset(final FedoraVersion version, final URI fedoraUri, final boolean preparationAsTx,
+            final boolean shared, final ObjectLayout layout, final PidGenerator prepared, final PidGenerator created)
+            throws IOException {
+        super();
+        this.prepared = prepared;
+        this.created = created;
+        if (!layout.isFlat() && version == FedoraVersion.FCREPO3) {
+            LOG.warn("Fedora 3 does not support hierarchies of objects, layout {} ignored", layout);
+            this.layout = ObjectLayout.FLAT;
+        } else {
+            this.layout = layout;
+        }
+        this.preparedPaths = this.layout.paths(prepared);
+        this.createdPaths = this.layout.nodes(created);
+        if (preparationAsTx && version != FedoraVersion.FCREPO3) {
+            this.txManager = new TransactionStateManager(COMMIT, 0, 1);
+        } else {
+            this.txManager = null;
+        }
+        this.fedora = FedoraRestClient.createClient(fedoraUri, version, txManager);
+        this.shared = shared;
+    }
+
+    /**
+     * Create objects and everything the actions require to exist
+     * @param count the number of objects to create
+     * @param actions the actions which will be performed on the objects
+     * @param sizes the sizes of the datastreams to create if an action
+     *        requires them
+     * @param numThreads the number of objects prepared concurrently
+     * @param objectsPerTx the maximum number of objects per preparation
+     *        transaction. Values <= 0 use a single transaction
+     */
+    public void prepare(final long count, final Set<Action> actions, final SizeDistribution sizes,
+            final int numThreads, final int objectsPerTx) throws IOException {
+        final PreparationPipeline pipeline = new PreparationPipeline(fedora, txManager, numThreads, objectsPerTx);
+        long to = numPrepared + count;
+        if (to > layout.getCapacity()) {
+            LOG.warn("The layout {} holds {} objects, the remaining objects are not prepared", layout, layout
+                    .getCapacity());
+            to = layout.getCapacity();
+        }
+        if (!layout.isTree()) {
+            pipeline.prepare(preparedPaths, numPrepared, to - numPrepared, actions, sizes);
+        } else {
+            /* the objects of a level contain the next one, the subtrees below a level are prepared in parallel */
+            for (int level = 1; level <= layout.getDepth() && numPrepared < to; level++) {
+                final long levelEnd = Math.min(layout.getLevelStart(level + 1), to);
+                if (levelEnd > numPrepared) {
+                    LOG.info("preparing depth {} of the tree", level);
+                    pipeline.prepare(preparedPaths, numPrepared, levelEnd - numPrepared, actions, sizes);
+                    numPrepared = levelEnd;
+                }
+            }
+        }
+        numPrepared = to;
+        if (children != null && actions.contains(Action.LIST)) {
+            fillContainers(pipeline, sizes);
+        }
+    }
+
+    /**
+     * Fill the containers with the configured number of children, one
+     * container per count. The children are objects without datastreams,
+     * which take their pids from the created objects and are deleted along
+     * with their container
+     */
+    private void fillContainers(final PreparationPipeline pipeline, final SizeDistribution sizes)
+            throws IOException {
+        if (fedora.getVersion() == FedoraVersion.FCREPO3) {
+            LOG.warn("Fedora 3 does not support containers, the objects listed are left empty");
+            return;
+        }
+        if (numPrepared < children.length) {
+            LOG.warn("Only {} objects are prepared, the containers of the remaining child counts are not filled",
+                    numPrepared);
+        }
+        final Set<Action> none = Collections.emptySet();
+        while (numContainers < children.length && numContainers < numPrepared) {
+            final String container = preparedPaths.get(numContainers);
+            LOG.info("filling container {} with {} children", container, children[numContainers]);
+            pipeline.prepare(new ObjectLayout.Paths() {
+
+                @Override
+                public String get(final long index) {
+                    return container + "/" + created.get(index);
+                }
+            }, numCreated, children[numContainers], none, sizes);
+            numCreated += children[numContainers];
+            numContainers++;
+        }
+    }
+
+    /**
+     * Delete all the objects prepared or created by the workers so far
+     * @param numThreads the number of objects purged concurrently
+     * @param objectsPerTx the maximum number of objects per purge
+     *        transaction. Values <= 0 use a single transaction
+     */
+    public void purge(final int numThreads, final int objectsPerTx) throws IOException {
+        final PreparationPipeline purge = new PreparationPipeline(fedora, txManager, numThreads, objectsPerTx);
+        if (numPrepared > 0) {
+            /* deleting the objects at depth 1 deletes the whole tree */
+            purge.purge(preparedPaths, 0, layout.isTree() ? Math.min(numPrepared, layout.getLevelStart(2))
+                    : numPrepared);
+        }
+        for (final long[] range : createdRanges) {
+            purge.purge(createdPaths, range[0], range[1] - range[0]);
+        }
+        createdRanges.clear();
+        numPrepared = 0;
+        numCreated = 0;
+        numContainers = 0;
+    }
+
+    /**
+     * Check the fixity of the datastreams prepared from now on, so that the
+     * phases checking fixity can verify the content they read
+     */
+    public void enableFixity() {
+        fedora.setFixity(fixity);
+    }
+
+    /**
+     * @return whether the datastreams of the dataset are written
+     *         reproducibly, so that their fixity can be checked
+     */
+    public boolean isFixityEnabled() {
+        return fedora.getFixity() != null;
+    }
+
+    /**
+     * @return the fixity checks of the datastreams of the dataset
+     */
+    public Fixity getFixity() {
+        return fixity;
+    }
+
+    /**
+     * @param index the number of the action, the prepared objects are cycled
+     *        through
+     * @return the pid of a prepared object
+     */
+    public String getPreparedPid(final long index) {
+        return getPreparedPid(index, 0);
+    }
+
+    /**
+     * @param index the number of the action, the prepared objects at the
+     *        depth are cycled through
+     * @param depth the depth of the object in the tree, 0 for any depth
+     * @return the pid of a prepared object
+     */
+    public String getPreparedPid(final long index, final int depth) {
+        if (numPrepared == 0) {
+            throw new IllegalStateException("No objects have been prepared");
+        }
+        if (depth <= 0 || !layout.isTree()) {
+            return preparedPaths.get(index % numPrepared);
+        }
+        final long start = layout.getLevelStart(Math.min(depth, layout.getDepth() + 1));
+        final long end = depth > layout.getDepth() ? start : Math.min(layout.getLevelStart(depth + 1), numPrepared);
+        if (end <= start) {
+            throw new IllegalStateException("No objects have been prepared at depth " + depth);
+        }
+        return preparedPaths.get(start + index % (end - start));
+    }
+
+    /**
+     * @param index the number of the action, the containers are cycled
+     *        through
+     * @return the pid of a container filled with children
+     */
+    public String getContainerPid(final long index) {
+        if (numContainers == 0) {
+            throw new IllegalStateException("No containers have been filled with children");
+        }
+        return preparedPaths.get(index % numContainers);
+    }
+
+    /**
+     * @param children the number of children of the containers listed, one
+     *        container is prepared per count
+     */
+    public void setChildren(final long[] children) {
+        this.children = children;
+    }
+
+    /**
+     * @return the pid of an object which will be created by a worker
+     */
+    public String nextCreatedPid() {
+        return nextCreatedPid(0);
+    }
+
+    /**
+     * @param depth the depth of the object in the tree, 0 or 1 to create it
+     *        below /objects
+     * @return the pid of an object which will be created by a worker
+     */
+    public String nextCreatedPid(final int depth) {
+        final long index = numCreated++;
+        if (depth > 1 && layout.isTree()) {
+            /* a child of a prepared object, which is deleted along with the tree */
+            return getPreparedPid(index, depth - 1) + "/" + createdPaths.get(index);
+        }
+        final long[] last = createdRanges.isEmpty() ? null : createdRanges.get(createdRanges.size() - 1);
+        if (last != null && last[1] == index) {
+            last[1]++;
+        } else {
+            createdRanges.add(new long[] { index, index + 1 });
+        }
+        return createdPaths.get(index);
+    }
+
+    /**
+     * @return whether the prepared objects are shared by several phases
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    public ObjectLayout getLayout() {
+        return layout;
+    }
+
+    public long getNumPrepared() {
+        return numPrepared;
+    }
+
+    /**
+     * @return the client used for preparation and purge
+     */
+    public FedoraRestClient getFedora() {
+        return fedora;
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.fcrepo.bench.BenchTool.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the results of a benchmark run to a CSV file with one line per
+ * action: the start of the request in milliseconds since the clock was
+ * started, the duration in milliseconds, the action, the HTTP status and the
+ * number of bytes. The dispatcher only copies the fields of a result into a
+ * preallocated ring, while a background thread formats and writes them, so
+ * writing the log never throttles the measured run. Results are dropped
+ * rather than blocking the dispatcher if the writer falls behind.
+ */
+public class DurationLog implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DurationLog.class);
+
+    /* the number of results the ring can hold, a power of two */
+    private static final int CAPACITY = 1 << 16;
+
+    private static final int MASK = CAPACITY - 1;
+
+    /* the longest line: two numbers with fractions, an action, a status and a number */
+    private static final int MAX_LINE_LENGTH = 128;
+
+    private static final byte[] HEADER = "# start_ms,duration_ms,action,status,bytes\n"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[][] ACTION_NAMES = new byte[Action.values().length + 1][];
+
+    static {
+        for (final Action action : Action.values()) {
+            ACTION_NAMES[action.ordinal()] = action.name().getBytes(StandardCharsets.US_ASCII);
+        }
+        ACTION_NAMES[Action.values().length] = "UNKNOWN".getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private final long[] starts = new long[CAPACITY];
+
+    private final long[] durations = new long[CAPACITY];
+
+    private final long[] sizes = new long[CAPACITY];
+
+    private final int[] statuses = new int[CAPACITY];
+
+    private final int[] actions = new int[CAPACITY];
+
+    /* the number of results appended by the dispatcher */
+    private final AtomicLong published = new AtomicLong();
+
+    /* the number of results written by the writer */
+    private final AtomicLong consumed = new AtomicLong();
+
+    private final OutputStream out;
+
+    private final byte[] buffer = new byte[65536];
+
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    private long origin;
+
+    private long dropped;
+
+    private IOException error;
+
+    /**
+     * @param path the path of the log file
+     * @throws IOException if the file can not be opened
+     */
+    public DurationLog(final String path) throws IOException {
+        super();
+        this.out = new FileOutputStream(path);
+        this.out.write(HEADER);
+        this.writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                write();
+            }
+        }, "duration-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Set the time from which the starts of the requests are measured. Has to
+     * be called before the first result is appended.
+     * @param origin the start of the clock as returned by
+     *        {@link System#nanoTime()}
+     */
+    public void setOrigin(final long origin) {
+        this.origin = origin;
+    }
+
+    /**
+     * Hand a result over to the writer. Must only be called from a single
+     * thread.
+     * @param result the result to log
+     */
+    public void append(final BenchToolResult result) {
+        final long index = published.get();
+        if (index - consumed.get() >= CAPACITY) {
+            dropped++;
+            return;
+        }
+        final int slot = (int) index & MASK;
+        starts[slot] = result.getStart() - origin;
+        durations[slot] = result.getDuration();
+        sizes[slot] = result.getSize();
+        statuses[slot] = result.getStatus();
+        actions[slot] = result.getAction() == null ? Action.values().length : result.getAction().ordinal();
+        /* publishes the slot to the writer */
+        published.lazySet(index + 1);
+    }
+
+    /**
+     * Write the remaining results and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+        if (dropped > 0) {
+            LOG.warn("{} result(s) have not been written to the duration log, since the writer fell behind",
+                    dropped);
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void write() {
+        int pos = 0;
+        try {
+            while (true) {
+                final boolean done = closed;
+                final long available = published.get();
+                long index = consumed.get();
+                while (index < available) {
+                    if (pos > buffer.length - MAX_LINE_LENGTH) {
+                        out.write(buffer, 0, pos);
+                        pos = 0;
+                    }
+                    pos = format((int) index & MASK, pos);
+                    index++;
+                    consumed.lazySet(index);
+                }
+                if (pos > 0) {
+                    out.write(buffer, 0, pos);
+                    pos = 0;
+                }
+                if (done) {
+                    return;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        } catch (final IOException e) {
+            error = e;
+            LOG.error("Unable to write the duration log", e);
+            /* keep the dispatcher from filling the ring */
+            consumed.set(Long.MAX_VALUE / 2);
+        }
+    }
+
+    private int format(final int slot, int pos) {
+        pos = writeMillis(starts[slot], pos);
+        buffer[pos++] = ',';
+        pos = writeMillis(durations[slot], pos);
+        buffer[pos++] = ',';
+        final byte[] name = ACTION_NAMES[actions[slot]];
+        System.arraycopy(name, 0, buffer, pos, name.length);
+        pos += name.length;
+        buffer[pos++] = ',';
+        pos = writeLong(statuses[slot], pos);
+        buffer[pos++] = ',';
+        pos = writeLong(sizes[slot], pos);
+        buffer[pos++] = '\n';
+        return pos;
+    }
+
+    /* write nanoseconds as milliseconds with three decimals */
+    private int writeMillis(final long nanos, int pos) {
+        long micros = nanos / 1000;
+        if (micros < 0) {
+            buffer[pos++] = '-';
+            micros = -micros;
+        }
+        pos = writeLong(micros / 1000, pos);
+        buffer[pos++] = '.';
+        final long fraction = micros % 1000;
+        buffer[pos++] = (byte) ('0' + fraction / 100);
+        buffer[pos++] = (byte) ('0' + fraction / 10 % 10);
+        buffer[pos++] = (byte) ('0' + fraction % 10);
+        return pos;
+    }
+
+    private int writeLong(long value, int pos) {
+        if (value < 0) {
+            buffer[pos++] = '-';
+            value = -value;
+        }
+        final int begin = pos;
+        do {
+            buffer[pos++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        /* the digits have been written in reverse */
+        for (int i = begin, j = pos - 1; i < j; i++, j--) {
+            final byte b = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = b;
+        }
+        return pos;
+    }
+}
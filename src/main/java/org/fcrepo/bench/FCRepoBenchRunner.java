@@ -4,23 +4,24 @@
 
 package org.fcrepo.bench;
 
-import static org.fcrepo.bench.TransactionStateManager.TransactionMode.COMMIT;
-import static org.fcrepo.bench.TransactionStateManager.TransactionMode.ROLLBACK;
-
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.UUID;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import org.HdrHistogram.Histogram;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.fcrepo.bench.BenchTool.Action;
+import org.fcrepo.bench.BenchTool.Engine;
 import org.fcrepo.bench.BenchTool.FedoraVersion;
 import org.fcrepo.bench.TransactionStateManager.TransactionMode;
 import org.slf4j.Logger;
@@ -28,330 +29,574 @@ import org.slf4j.LoggerFactory;
 
 import com.ibm.icu.text.DecimalFormat;
 
+/**
+ * Performs the measured run of a single {@link Phase} on the objects of a
+ * {@link Dataset} and reports its results
+ */
 public class FCRepoBenchRunner {
 
     private static final DecimalFormat FORMAT = new DecimalFormat("###.##");
 
     private static final Logger LOG = LoggerFactory.getLogger(FCRepoBenchRunner.class);
 
-    private final List<BenchToolResult> results = Collections.synchronizedList(new ArrayList<BenchToolResult>());
+    /*
+     * actions which can not be repeated on the same object. Time bounded runs
+     * prepare a fresh object for each of them instead of cycling through the
+     * prepared ones
+     */
+    static final Set<Action> CONSUMING_ACTIONS = EnumSet.of(Action.INGEST, Action.DELETE,
+            Action.DELETE_PROPERTY);
+
+    private final LatencyRecorder recorder = new LatencyRecorder();
 
     private final FedoraVersion version;
 
     private final URI fedoraUri;
 
-    private Action action;
+    private final Phase phase;
+
+    private final Action action;
+
+    /* null if a single action is performed */
+    private final ActionMix mix;
 
     private final int numBinaries;
 
-    private final long size;
+    private final SizeDistribution sizes;
 
     private final int numThreads;
 
-    private final ExecutorService executor;
+    /* null if the actions are performed by the non-blocking engine */
+    private ExecutorService executor;
 
-    // Rest client used for startup and teardown operations
-    private final FedoraRestClient fedora;
+    /* the objects the actions are performed on */
+    private final Dataset dataset;
 
-    private FileOutputStream logOut;
+    private DurationLog durationLog;
 
-    private final TransactionStateManager txManager;
+    /* null if the ingested payloads are generated */
+    private FileSource source;
 
-    private final TransactionStateManager prepTxManager;
+    private final TransactionStateManager txManager;
 
-    private long runTime;
+    /* the transactions opened ahead of the actions, null if they are created on demand */
+    private TransactionPool txPool;
 
     private long testTime;
 
-    private boolean propertyAction;
+    /* null for closed loop runs */
+    private final ArrivalSchedule schedule;
+
+    private final boolean timeBounded;
+
+    /* the length of the warmup, steady state and cooldown windows in ms */
+    private final long warmup;
+
+    private final long duration;
+
+    private final long cooldown;
+
+    private long numCompleted;
+
+    private long numFailed;
 
-    private final boolean purge;
+    private final Engine engine;
 
-    public FCRepoBenchRunner(final FedoraVersion version, final URI fedoraUri, final Action action,
-            final int numBinaries, final long size, final int numThreads, final String logpath,
-            final TransactionMode txMode, final int actionsPerTx, final int parallelTx, final boolean preparationAsTx,
-            final boolean propertyAction, final boolean purge) throws IOException {
+    /* the depth of the objects in the tree the actions are performed on, 0 for any */
+    private final int targetDepth;
+
+    /**
+     * @param dataset the objects the actions are performed on
+     * @param phase the settings of the run
+     */
+    public FCRepoBenchRunner(final FedoraVersion version, final URI fedoraUri, final Dataset dataset,
+            final Phase phase) throws IOException {
         super();
         this.version = version;
         this.fedoraUri = fedoraUri;
-        this.action = action;
-        this.numBinaries = numBinaries;
-        this.size = size;
-        this.numThreads = numThreads;
-        this.executor = Executors.newFixedThreadPool(numThreads);
-        this.propertyAction = propertyAction;
-        this.purge = purge;
+        this.dataset = dataset;
+        this.phase = phase;
+        this.action = phase.getAction();
+        this.mix = phase.getMix();
+        this.numBinaries = phase.getNumActions();
+        this.sizes = phase.getSize();
+        this.numThreads = phase.getNumThreads();
+        this.engine = createExecutor(phase.getEngine()) ? phase.getEngine() : Engine.THREADS;
+        this.schedule = phase.getRate() > 0 ? new ArrivalSchedule(phase.getRate(), phase.isPoisson()) : null;
+        this.timeBounded = phase.getDuration() > 0;
+        this.duration = Math.max(phase.getDuration(), 0);
+        this.warmup = timeBounded ? Math.max(phase.getWarmup(), 0) : 0;
+        this.cooldown = timeBounded ? Math.max(phase.getCooldown(), 0) : 0;
+        if (phase.getTargetDepth() > 0 && !dataset.getLayout().isTree()) {
+            LOG.warn("The objects are not laid out as a tree, target depth {} ignored", phase.getTargetDepth());
+            this.targetDepth = 0;
+        } else if (phase.getTargetDepth() > dataset.getLayout().getDepth()) {
+            LOG.warn("The tree {} is {} levels deep, target depth {} ignored", new Object[] { dataset.getLayout(),
+                    dataset.getLayout().getDepth(), phase.getTargetDepth() });
+            this.targetDepth = 0;
+        } else {
+            this.targetDepth = phase.getTargetDepth();
+        }
 
+        final TransactionMode txMode = phase.getTxMode();
         if (txMode == TransactionMode.NONE || version == FedoraVersion.FCREPO3) {
             if (txMode != TransactionMode.NONE) {
                 LOG.warn("Transactions are not supported by this version of Fedora, transaction settings ignored");
             }
             this.txManager = null;
         } else {
-            this.txManager = new TransactionStateManager(txMode, actionsPerTx, parallelTx);
-            LOG.debug("Transactions enabled in mode " + txMode + " with " + actionsPerTx + " actions per tx, " +
-                    parallelTx + " parallel tx");
+            this.txManager = new TransactionStateManager(txMode, phase.getActionsPerTx(), phase.getParallelTx());
+            LOG.debug("Transactions enabled in mode " + txMode + " with " + phase.getActionsPerTx() +
+                    " actions per tx, " + phase.getParallelTx() + " parallel tx");
 
         }
-
-        if (preparationAsTx && version != FedoraVersion.FCREPO3) {
-            prepTxManager = new TransactionStateManager(COMMIT, 0, 1);
-        } else {
-            prepTxManager = null;
+        if (phase.getTxPoolSize() > 0 && txManager == null) {
+            LOG.warn("The actions are not performed in transactions, transaction pool of {} ignored", phase
+                    .getTxPoolSize());
         }
 
-        if (propertyAction && version == FedoraVersion.FCREPO3) {
-            LOG.warn("Actions on propertiesare not supported by this version of Fedora, property action setting ignored");
-            this.propertyAction = false;
+        try {
+            this.durationLog = new DurationLog(phase.getLogPath());
+        } catch (final IOException e) {
+            this.durationLog = null;
+            LOG.warn("Unable to open log file at {}. No log output will be generated", phase.getLogPath());
         }
 
-        this.fedora = FedoraRestClient.createClient(fedoraUri, version, prepTxManager);
-
-        try {
-            this.logOut = new FileOutputStream(logpath);
-        } catch (final FileNotFoundException e) {
-            this.logOut = null;
-            LOG.warn("Unable to open log file at {}. No log output will be generated", logpath);
-        }
-
-        if (this.propertyAction) {
-            switch (this.action) {
-            case INGEST:
-                this.action = Action.CREATE_PROPERTY;
-                break;
-            case READ:
-                this.action = Action.READ_PROPERTY;
-                break;
-            case UPDATE:
-                this.action = Action.UPDATE_PROPERTY;
-                break;
-            case DELETE:
-                this.action = Action.DELETE_PROPERTY;
-                break;
-            default:
-                LOG.error("Cannot perform action {} on a property.", this.action.toString());
-                break;
+        if (phase.getSourcePath() != null) {
+            if (phase.getActions().contains(Action.INGEST)) {
+                /* start prefetching before the clock is started */
+                this.source = new FileSource(phase.getSourcePath(), numThreads * 2);
+            } else {
+                LOG.warn("Only ingest sends the files of a source, source {} ignored", phase.getSourcePath());
             }
         }
     }
 
-    public void runBenchmark() throws IOException {
-        runTime = System.currentTimeMillis();
+    /**
+     * @return true if the phase performs its actions in transactions which
+     *         are rolled back
+     */
+    public boolean isRolledBack() {
+        return txManager != null && txManager.getMode() == TransactionMode.ROLLBACK;
+    }
 
+    /**
+     * @return the recorder of the results of the run
+     */
+    public LatencyRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * @return the length of the measured run in nanoseconds
+     */
+    public long getTestTime() {
+        return testTime;
+    }
+
+    public void runBenchmark() throws IOException {
         this.logParameters();
-        /*
-         * first create the required top level objects so their creation won't
-         * affect the pure action performance
-         */
-        final List<String> pids = prepareObjects();
 
-        LOG.info("scheduling {} {} actions", numBinaries, this.action.toString());
+        if (timeBounded) {
+            LOG.info("scheduling {} actions for {} ms after a warmup of {} ms and before a cooldown of {} ms",
+                    new Object[] { phase.describeWorkload(), duration, warmup, cooldown });
+        } else {
+            LOG.info("scheduling {} {} actions", numBinaries, phase.describeWorkload());
+        }
+
+        /* the non-blocking engine gets a client with a connection for every concurrent request */
+        final CloseableHttpAsyncClient asyncClient =
+                engine == Engine.ASYNC ? BenchTool.createAsyncClient(numThreads) : null;
+
+        if (BenchTool.metrics != null) {
+            BenchTool.metrics.setRun(phase, recorder, txManager);
+        }
+
+        IntervalReporter reporter = null;
+        if (phase.getReportInterval() > 0) {
+            try {
+                reporter = new IntervalReporter(recorder, phase.getReportInterval(), phase.getReportLogPath());
+            } catch (final IOException e) {
+                LOG.warn("Unable to open the interval report at {}. Intervals will be logged only", phase
+                        .getReportLogPath());
+                reporter = new IntervalReporter(recorder, phase.getReportInterval(), null);
+            }
+        }
+
+        /* the fixity checks are shared by all the phases, so only the reads of this one are reported */
+        final Fixity fixity = dataset.getFixity();
+        final long verified = fixity.getVerified();
+
+        if (txManager != null && phase.getTxPoolSize() > 0) {
+            openTxPool();
+        }
 
         /* schedule all the action workers for execution */
         LOG.info("Starting clock now...");
-        testTime = System.currentTimeMillis();
-
-        final List<Future<BenchToolResult>> futures;
-        if (txManager == null) {
-            futures = getActionFutures(pids);
-        } else {
-            futures = getTransactionalActionFutures(pids);
+        final long start = System.nanoTime();
+        if (durationLog != null) {
+            durationLog.setOrigin(start);
+        }
+        if (reporter != null) {
+            reporter.start(start);
+        }
+        if (schedule != null) {
+            schedule.start(start);
+        }
+        if (timeBounded) {
+            final long windowStart = start + TimeUnit.MILLISECONDS.toNanos(warmup);
+            recorder.setWindow(windowStart, windowStart + TimeUnit.MILLISECONDS.toNanos(duration));
         }
 
-        /* retrieve the workers' results */
+        /* dispatch the workers and retrieve their results */
+        long numActions = 0;
         try {
-            this.fetchResults(futures);
-        } catch (InterruptedException | ExecutionException | IOException e) {
+            numActions = this.dispatch(start, asyncClient);
+        } catch (final InterruptedException e) {
+            LOG.error("Interrupted while dispatching the actions, aborting the run");
+            abort();
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
             LOG.error("Error while getting results from worker threads", e);
         } finally {
-            this.executor.shutdown();
+            if (reporter != null) {
+                reporter.close();
+            }
+            if (this.executor != null) {
+                this.executor.shutdown();
+            }
+            if (asyncClient != null) {
+                /* the I/O threads would keep the JVM running */
+                asyncClient.close();
+            }
+            if (durationLog != null) {
+                durationLog.close();
+            }
+            if (source != null) {
+                source.close();
+            }
+            if (txPool != null) {
+                txPool.close();
+            }
         }
 
-        testTime = System.currentTimeMillis() - testTime;
+        testTime = timeBounded ? TimeUnit.MILLISECONDS.toNanos(duration) : System.nanoTime() - start;
         LOG.info("Stopping clock.");
-        LOG.info("Completed {} {} action(s) executed in {} ms {}", new Object[] { this.numBinaries, action, testTime,
+        LOG.info("Completed {} {} action(s) executed in {} ms {}", new Object[] { numActions,
+            phase.describeWorkload(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
             txManager == null ? "" : "(includes tx create/commit)" });
-
-        /* delete all the created objects and datastreams from the repository */
-        if (purge) {
-            if (txManager == null || txManager.getMode() != ROLLBACK) {
-                this.purgeObjects(pids);
-            }
+        if (numFailed > 0) {
+            LOG.warn("{} action(s) failed and are not part of the latencies reported", numFailed);
+        }
+        if (phase.isFixity() && phase.getActions().contains(Action.READ)) {
+            LOG.info("Verified the fixity of {} read(s)", fixity.getVerified() - verified);
         }
-
-        runTime = System.currentTimeMillis() - runTime;
 
         this.logResults();
     }
 
-    private List<Future<BenchToolResult>> getActionFutures(final List<String> pids) throws IOException {
-        final List<Future<BenchToolResult>> futures = new ArrayList<>();
-
-        final FedoraRestClient restClient = FedoraRestClient.createClient(fedoraUri, version, txManager);
-
-        for (final String pid : pids) {
-            futures.add(executor.submit(new ActionWorker(action, fedoraUri, pid, size, restClient, null)));
+    /**
+     * Fill the pool of transactions before the clock is started, so that the
+     * first actions find ready transactions as well
+     */
+    private void openTxPool() throws IOException {
+        txPool =
+                new TransactionPool(FedoraRestClient.createClient(fedoraUri, version, txManager), phase
+                        .getTxPoolSize(), txManager.getActionsPerTx(), recorder);
+        txManager.setPool(txPool);
+        try {
+            txPool.fill();
+        } catch (final InterruptedException e) {
+            txPool.close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while opening the transaction pool");
+        } catch (final IOException e) {
+            txPool.close();
+            throw e;
         }
-
-        return futures;
     }
 
-    private List<Future<BenchToolResult>> getTransactionalActionFutures(final List<String> pids) throws IOException {
-        final List<Future<BenchToolResult>> futures = new ArrayList<>();
-
+    /**
+     * Submit the action workers and record their results as they complete. In
+     * closed loop runs the number of workers in flight is bounded, so that a
+     * new action is only started once a thread has become available.
+     * @return the number of actions performed
+     */
+    private long dispatch(final long start, final CloseableHttpAsyncClient asyncClient) throws IOException,
+            InterruptedException {
         final FedoraRestClient restClient = FedoraRestClient.createClient(fedoraUri, version, txManager);
+        if (phase.isFixity()) {
+            restClient.setFixity(dataset.getFixity());
+        }
+        /* the phases not checking fixity must not write content the others can not verify */
+        restClient.setReproducible(dataset.isFixityEnabled());
+        final CompletionService<BenchToolResult> completion;
+        final int maxInFlight;
+        switch (engine) {
+        case ASYNC:
+            completion = new AsyncCompletionService(asyncClient);
+            maxInFlight = schedule == null ? numThreads : Integer.MAX_VALUE;
+            break;
+        case VIRTUAL_THREADS:
+            /* every action gets a thread of its own, so no more than the limit are submitted */
+            completion = new ExecutorCompletionService<>(executor);
+            maxInFlight = schedule == null ? numThreads : Integer.MAX_VALUE;
+            break;
+        default:
+            completion = new ExecutorCompletionService<>(executor);
+            maxInFlight = schedule == null ? numThreads * 2 : Integer.MAX_VALUE;
+            break;
+        }
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(warmup + duration + cooldown);
+
+        int inFlight = 0;
+        long numActions = 0;
+        while (timeBounded ? System.nanoTime() - deadline < 0 : numActions < numBinaries) {
+            final Action next = mix == null ? action : mix.next();
+            /*
+             * mixed actions and phases share the prepared objects, so consuming ones always need a fresh object,
+             * as do the ones at a depth of a tree holding fewer objects than actions
+             */
+            final boolean onDemand =
+                    (timeBounded || mix != null || dataset.isShared() || targetDepth > 0) &&
+                            CONSUMING_ACTIONS.contains(next);
+            final String pid;
+            if (onDemand) {
+                pid = dataset.nextCreatedPid(targetDepth);
+            } else if (next == Action.LIST) {
+                pid = dataset.getContainerPid(numActions);
+            } else {
+                pid = dataset.getPreparedPid(numActions, targetDepth);
+            }
+            numActions++;
 
-        for (final String pid : pids) {
-            final TransactionState tx = txManager.getTransaction();
+            while (inFlight >= maxInFlight) {
+                fetchResult(completion.take());
+                inFlight--;
+            }
 
-            // Create the transaction if it has not been initialized yet
-            if (!tx.actionsAssigned()) {
-                LOG.debug("Adding create tx worker");
-                futures.add(executor.submit(new ActionWorker(Action.CREATE_TX, fedoraUri, null, 0, restClient, tx)));
+            /* the prefetcher opens the files ahead, so the workers never wait for the disk */
+            final SourceFileEntity content = source != null && next == Action.INGEST ? source.take() : null;
+
+            if (txManager == null) {
+                completion.submit(new ActionWorker(next, fedoraUri, pid, sizes.next(), restClient, null, recorder,
+                        nextIntendedStart(), onDemand, content));
+                inFlight++;
+            } else {
+                final TransactionStateManager.Assignment assignment = txManager.assign();
+                final TransactionState tx = assignment.getTransaction();
+
+                // Create the transaction if it has not been initialized yet
+                if (assignment.isFirst() && !tx.isPooled()) {
+                    LOG.debug("Adding create tx worker");
+                    completion.submit(new ActionWorker(Action.CREATE_TX, fedoraUri, null, 0, restClient, tx,
+                            recorder, ActionWorker.UNSCHEDULED, false));
+                    inFlight++;
+                }
+
+                /* submitted by the creation of the transaction, no thread waits for it */
+                tx.whenCreated(submission(completion, new ActionWorker(next, fedoraUri, pid, sizes.next(),
+                        restClient, tx, recorder, nextIntendedStart(), onDemand, content)));
+                inFlight++;
+
+                // Finalize the transaction once its last action has completed
+                if (assignment.isLast()) {
+                    tx.whenCompleted(submission(completion, new ActionWorker(txManager.getFinalizeAction(),
+                            fedoraUri, null, 0, restClient, tx, recorder, ActionWorker.UNSCHEDULED, false)));
+                    inFlight++;
+                }
             }
-            tx.assignAction();
 
-            futures.add(executor.submit(new ActionWorker(action, fedoraUri, pid, size, restClient, tx)));
+            /* record whatever has completed in the meantime */
+            Future<BenchToolResult> done;
+            while ((done = completion.poll()) != null) {
+                fetchResult(done);
+                inFlight--;
+            }
+        }
 
-            // Finalize the transaction if it is complete
-            if (tx.allActionsAssigned()) {
-                futures.add(executor.submit(new ActionWorker(txManager.getFinalizeAction(), fedoraUri, null, 0,
-                        restClient, tx)));
+        if (txManager != null) {
+            // Finalize any lingering incomplete transactions
+            for (final TransactionState tx : txManager.drain()) {
+                if (!tx.allActionsAssigned()) {
+                    tx.setMaxActions(tx.getActionsAssigned());
+                    tx.whenCompleted(submission(completion, new ActionWorker(txManager.getFinalizeAction(),
+                            fedoraUri, null, 0, restClient, tx, recorder, ActionWorker.UNSCHEDULED, false)));
+                    inFlight++;
+                }
             }
         }
 
-        // Finalize any lingering incomplete transactions
-        for (final TransactionState tx : txManager.getTransactions()) {
-            if (!tx.allActionsAssigned()) {
-                tx.setMaxActions(tx.getActionsAssigned());
-                futures.add(executor.submit(new ActionWorker(txManager.getFinalizeAction(), fedoraUri, null, 0,
-                        restClient, tx)));
+        while (inFlight > 0) {
+            fetchResult(completion.take());
+            inFlight--;
+        }
+        return numActions;
+    }
+
+    /**
+     * @return a task submitting the worker, run by the transaction the worker
+     *         depends on. The worker is counted as in flight as soon as it
+     *         has been handed to the transaction.
+     */
+    private static Runnable submission(final CompletionService<BenchToolResult> completion,
+            final ActionWorker worker) {
+        return new Runnable() {
+
+            @Override
+            public void run() {
+                completion.submit(worker);
             }
+        };
+    }
+
+    /**
+     * Create the executor performing the action workers of the given engine.
+     * Virtual threads are created reflectively, so that the tool still runs
+     * on JDKs which do not provide them.
+     * @return false if the engine is not available and a fixed thread pool
+     *         has been created instead
+     */
+    private boolean createExecutor(final Engine engine) {
+        switch (engine) {
+        case ASYNC:
+            /* the non-blocking engine performs the requests on the I/O threads of its client */
+            this.executor = null;
+            return true;
+        case VIRTUAL_THREADS:
+            try {
+                this.executor =
+                        (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                return true;
+            } catch (final ReflectiveOperationException e) {
+                LOG.warn("Virtual threads are not available on Java {}, using {} platform thread(s) instead",
+                        System.getProperty("java.version"), numThreads);
+                this.executor = Executors.newFixedThreadPool(numThreads);
+                return false;
+            }
+        default:
+            this.executor = Executors.newFixedThreadPool(numThreads);
+            return true;
         }
+    }
 
-        return futures;
+    /**
+     * Wait for the intended start of the next action if the run is open loop
+     * @return the intended start time or {@link ActionWorker#UNSCHEDULED}
+     */
+    private long nextIntendedStart() {
+        if (schedule == null) {
+            return ActionWorker.UNSCHEDULED;
+        }
+        return schedule.awaitNext();
     }
 
     private void logParameters() throws IOException {
-        LOG.info("Running {} {} action(s) against {} with a binary size of {} using {} thread(s)", new Object[] {
-                numBinaries, action.name(), version.name(), convertSize(size), numThreads});
+        LOG.info("Running {} {} action(s) against {} with binary size {} using {} thread(s)", new Object[] {
+                numBinaries, phase.describeWorkload(), version.name(), sizes.describe(), numThreads});
+        if (engine == Engine.ASYNC) {
+            LOG.info("Actions are performed by the non-blocking engine with up to {} concurrent request(s)",
+                    numThreads);
+        } else if (engine == Engine.VIRTUAL_THREADS) {
+            LOG.info("Actions are performed by virtual threads with up to {} action(s) in flight", numThreads);
+        }
+        if (schedule != null) {
+            LOG.info("Actions are scheduled open loop at {}", schedule);
+        }
+        if (targetDepth > 0) {
+            LOG.info("Actions are performed on the objects at depth {} of the tree {}", targetDepth, dataset
+                    .getLayout());
+        }
+        if (source != null) {
+            LOG.info("Ingesting the files in {} instead of generated payloads", source);
+            if (phase.isFixity()) {
+                LOG.warn("The fixity of the files is not checked, they are sent as they are");
+            }
+        }
         if (version == FedoraVersion.FCREPO4) {
-            LOG.info("The Fedora cluster has {} node(s) before the benchmark", this.fedora.getClusterSize());
+            LOG.info("The Fedora cluster has {} node(s) before the benchmark", dataset.getFedora().getClusterSize());
         }
     }
 
     private void logResults() throws IOException {
-        long duration = 0;
-        long numBytes = 0;
-        for (final BenchToolResult res : results) {
-            duration = duration + res.getDuration();
-            numBytes = numBytes + res.getSize();
+        /* mixed runs are summarized over all the actions of the mix, which are reported individually as well */
+        final Set<Action> actions = phase.getActions();
+        final Histogram hist = ActionStats.newHistogram();
+        long bytes = 0;
+        for (final Action a : actions) {
+            final ActionStats stats = recorder.getStats(a);
+            stats.collect();
+            hist.add(stats.getTotal());
+            bytes += stats.getBytes();
         }
-        float throughputPerThread = 0f;
-        throughputPerThread = size * numBinaries * 1000f / (1024f * 1024f * duration);
+        final double seconds = testTime / 1e9d;
+        final double throughput = bytes / (1024d * 1024d * seconds);
 
         if (version == FedoraVersion.FCREPO4) {
-            LOG.info("The Fedora cluster has {} node(s) after the benchmark", this.fedora.getClusterSize());
+            LOG.info("The Fedora cluster has {} node(s) after the benchmark", dataset.getFedora().getClusterSize());
         }
-        if (numThreads == 1) {
-            LOG.info("Throughput was {} MB/sec", FORMAT.format(throughputPerThread));
-        } else {
-            LOG.info("Throughput was {} MB/sec", FORMAT.format(throughputPerThread * numThreads));
-            LOG.info("Throughput per thread was {} MB/sec", FORMAT.format(throughputPerThread));
+        recorder.logReport(testTime);
+        LOG.info("Throughput was {} MB/sec", FORMAT.format(throughput));
+        if (numThreads > 1) {
+            LOG.info("Throughput per thread was {} MB/sec", FORMAT.format(throughput / numThreads));
         }
 
         if (txManager != null) {
             LOG.info("Time spent creating transactions {}ms", txManager.getCreateTime());
             LOG.info("Time spent committing transactions {}ms", txManager.getCommitTime());
+            if (txPool != null) {
+                LOG.info("{} transaction(s) taken from the pool, {} created on demand while it was empty, {} " +
+                        "keep-alive(s) sent", new Object[] { txPool.getTaken(), txPool.getMissed(),
+                    txPool.getKeepAlives() });
+            }
             LOG.info("Condensed results:");
-            LOG.info("{} {} {} {} {} {} {} {} {} {} {}", new Object[] {numBinaries, size, numThreads, action, duration,
-                    throughputPerThread, "tx", txManager.getActionsPerTx(), txManager.getParallelTx(),
-                    txManager.getCreateTime(), txManager.getCommitTime()});
+            LOG.info("{} {} {} {} {} {} {} {} {} {} {} {}", new Object[] {numBinaries, sizes, numThreads,
+                    phase.describeWorkload(),
+                    TimeUnit.NANOSECONDS.toMillis(testTime), FORMAT.format(throughput), "tx",
+                    txManager.getActionsPerTx(), txManager.getParallelTx(), txManager.getCreateTime(),
+                    txManager.getCommitTime(), LatencyRecorder.formatPercentiles(hist)});
         } else {
             LOG.info("Condensed results:");
-            LOG.info("{} {} {} {} {} {} {}", new Object[] { numBinaries, size, numThreads, action, testTime,
-                    throughputPerThread, "no-tx"});
+            LOG.info("{} {} {} {} {} {} {} {}", new Object[] { numBinaries, sizes, numThreads, phase.describeWorkload(),
+                    TimeUnit.NANOSECONDS.toMillis(testTime), FORMAT.format(throughput), "no-tx",
+                    LatencyRecorder.formatPercentiles(hist)});
         }
 
-        LOG.info("All operations completed in {} ms", runTime);
-
-    }
-
-    private List<BenchToolResult> fetchResults(final List<Future<BenchToolResult>> futures)
-            throws InterruptedException, ExecutionException, IOException {
-        int count = 0;
-        for (final Future<BenchToolResult> f : futures) {
-            final BenchToolResult res = f.get();
-            LOG.debug("{} of {} actions finished", ++count, numBinaries);
-            if (logOut != null) {
-                logOut.write((res.getDuration() + "\n").getBytes());
-            }
-            results.add(res);
-        }
-        return results;
-    }
-
-    private void purgeObjects(final List<String> pids) throws IOException {
-        LOG.info("purging {} objects and datastreams", numBinaries);
-
-        final TransactionState tx = startPreparationTx();
-
-        fedora.purgeObjects(pids, tx);
-
-        commitPreparationTx(tx);
     }
 
-    private List<String> prepareObjects() throws IOException {
-        final List<String> pids = new ArrayList<>();
-        LOG.info("preparing {} objects", numBinaries);
-        for (int i = 0; i < numBinaries; i++) {
-            pids.add(UUID.randomUUID().toString());
-        }
-
-        final TransactionState tx = startPreparationTx();
-
-        final long duration = fedora.createObjects(pids, tx);
-        LOG.info("creating {} objects took {} ms", pids.size(), duration);
-        if (this.action == Action.UPDATE || this.action == Action.READ || this.action == Action.DELETE) {
-            LOG.info("preparing {} datastreams of size {} for {}",
-                    new Object[] {numBinaries, convertSize(size), action});
-            // add datastreams in preparation which can be manipulated
-            fedora.createDatastreams(pids, size, tx);
+    /**
+     * Stop the workers still running once the run has been aborted
+     */
+    private void abort() {
+        if (executor == null) {
+            return;
         }
-        if (this.action == Action.SPARQL_SELECT) {
-            LOG.info("preparing {} sparql records for SPARQL_SELECT action", numBinaries);
-            for (final String pid : pids) {
-                fedora.sparqlInsert(pid, tx);
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.warn("The worker threads did not stop within a minute");
             }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-
-        if (this.action == Action.UPDATE_PROPERTY || this.action == Action.READ_PROPERTY ||
-                this.action == Action.DELETE_PROPERTY) {
-            LOG.info("preparing {} properties for {}", numBinaries, action);
-            // add properties in preparation which can be manipulated
-            fedora.createProperties(pids, tx);
-        }
-
-        commitPreparationTx(tx);
-
-        return pids;
     }
 
-    private TransactionState startPreparationTx() throws IOException {
-        if (prepTxManager != null) {
-            final TransactionState tx;
-            tx = prepTxManager.getTransaction();
-            fedora.createTransaction(tx);
-            return tx;
+    private void fetchResult(final Future<BenchToolResult> future) throws InterruptedException, IOException {
+        final BenchToolResult res;
+        try {
+            res = future.get();
+        } catch (final ExecutionException | CancellationException e) {
+            /* the worker has counted the action as an error already, a single failure does not end the run */
+            final Throwable cause = e.getCause() == null ? e : e.getCause();
+            if (numFailed++ == 0) {
+                LOG.warn("Action failed, further failures are only counted: {}", cause.toString());
+            }
+            LOG.debug("Action failed", cause);
+            return;
         }
-        return null;
-    }
-
-    private void commitPreparationTx(final TransactionState tx) throws IOException {
-        if (prepTxManager != null) {
-            tx.setReadyForCommit(true);
-            fedora.commitTransaction(tx);
-            prepTxManager.clearTransactions();
+        LOG.debug("{} actions finished", ++numCompleted);
+        if (durationLog != null) {
+            durationLog.append(res);
         }
     }
 
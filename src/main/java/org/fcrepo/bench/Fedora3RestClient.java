@@ -7,12 +7,12 @@ package org.fcrepo.bench;
 import java.io.IOException;
 import java.net.URI;
 
-import org.apache.http.HttpResponse;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.fcrepo.bench.BenchTool.FedoraVersion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,92 +29,58 @@ public class Fedora3RestClient extends FedoraRestClient {
     }
 
     @Override
-    protected long createObject(final String pid, final TransactionState tx) throws IOException {
+    protected FedoraRequest createObjectRequest(final String pid, final TransactionState tx) throws IOException {
         final HttpPost post =
                 new HttpPost(this.fedoraUri + "/objects/bt:" + pid +
                         "?format=info:fedora/fedora-system:FOXML-1.1&label=" + pid);
-        final long time = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(post);
-        final long duration = System.currentTimeMillis() - time;
-        post.releaseConnection();
-        if (resp.getStatusLine().getStatusCode() != 201) {
-            throw new IOException("Unable to create object at /objects/" + pid + "\nFedora returned " +
-                    resp.getStatusLine().getStatusCode());
-        }
-        return duration;
+        return new FedoraRequest(post, 201, "create object at /objects/" + pid);
     }
 
     @Override
-    protected long createDatastream(final String pid, final long size, final TransactionState tx) throws IOException {
+    protected FedoraRequest createDatastreamRequest(final String pid, final long size, final TransactionState tx)
+            throws IOException {
         final String dsUri = this.fedoraUri + "/objects/bt:" + pid + "/datastreams/ds1?versionable=true&controlGroup=M";
         final HttpPost post = new HttpPost(dsUri);
-        post.setEntity(new BenchToolEntity(size, BenchTool.RANDOM_SLICE));
-        final long start = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(post);
-        final long duration = System.currentTimeMillis() - start;
-        if (resp.getStatusLine().getStatusCode() != 201) {
-            throw new IOException("Unable to create datastream at " + dsUri + "\nFedora returned " +
-                    resp.getStatusLine().getStatusCode());
-        }
-        post.releaseConnection();
-        return duration;
+        post.setEntity(createPayload(pid, size));
+        return new FedoraRequest(post, 201, "create datastream at " + dsUri);
     }
 
     @Override
-    protected long updateDatastream(final String pid, final long size, final TransactionState tx) throws IOException {
+    protected FedoraRequest updateDatastreamRequest(final String pid, final long size, final TransactionState tx)
+            throws IOException {
         final String dsUri = this.fedoraUri + "/objects/bt:" + pid + "/datastreams/ds1?versionable=true&controlGroup=M";
         final HttpPut put = new HttpPut(dsUri);
-        put.setEntity(new BenchToolEntity(size, BenchTool.RANDOM_SLICE));
-        final long start = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(put);
-        final long duration = System.currentTimeMillis() - start;
-        put.releaseConnection();
-        if (resp.getStatusLine().getStatusCode() != 200) {
-            throw new IOException("Unable to update datastream at " + dsUri + "\nFedora returned " +
-                    resp.getStatusLine().getStatusCode());
-        }
-        return duration;
+        put.setEntity(createPayload(pid, size));
+        return new FedoraRequest(put, 200, "update datastream at " + dsUri);
     }
 
     @Override
-    protected long retrieveDatastream(final String pid, final TransactionState tx) throws IOException {
+    protected FedoraRequest retrieveDatastreamRequest(final String pid, final TransactionState tx)
+            throws IOException {
         final String dsUri = this.fedoraUri + "/objects/bt:" + pid + "/datastreams/ds1/content";
-        final HttpGet get = new HttpGet(dsUri);
-        final long start = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(get);
-        final long duration = System.currentTimeMillis() - start;
-        EntityUtils.consume(resp.getEntity());
-        get.releaseConnection();
-        if (resp.getStatusLine().getStatusCode() != 200) {
-            throw new IOException("Unable to retrieve datastream from " + dsUri + "\nFedora returned " +
-                    resp.getStatusLine().getStatusCode());
-        }
-        return duration;
+        return new FedoraRequest(new HttpGet(dsUri), 200, "retrieve datastream from " + dsUri);
     }
 
     @Override
-    protected long deleteObject(final String pid, final TransactionState tx) throws IOException {
-        final HttpDelete delete = new HttpDelete(this.fedoraUri + "/objects/bt:" + pid);
-        final long time = System.currentTimeMillis();
-        BenchTool.httpClient.execute(delete);
-        final long duration = System.currentTimeMillis() - time;
-        delete.releaseConnection();
-        return duration;
+    protected FedoraRequest deleteObjectRequest(final String pid, final TransactionState tx) throws IOException {
+        return new FedoraRequest(new HttpDelete(this.fedoraUri + "/objects/bt:" + pid), FedoraRequest.ANY_STATUS,
+                "delete object " + pid);
     }
 
     @Override
-    protected long deleteDatastream(final String pid, final TransactionState tx) throws IOException {
+    protected FedoraRequest deleteDatastreamRequest(final String pid, final TransactionState tx) throws IOException {
         final String dsUri = this.fedoraUri + "/objects/bt:" + pid + "/datastreams/ds1";
-        final HttpDelete delete = new HttpDelete(dsUri);
-        final long start = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(delete);
-        final long duration = System.currentTimeMillis() - start;
-        delete.releaseConnection();
-        if (resp.getStatusLine().getStatusCode() != 200) {
-            throw new IOException("Unable to delete datastream from " + dsUri + "\nFedora returned " +
-                    resp.getStatusLine().getStatusCode());
-        }
-        return duration;
+        return new FedoraRequest(new HttpDelete(dsUri), 200, "delete datastream from " + dsUri);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.fcrepo.bench.FedoraRestClient#addDigest(org.apache.http.client.methods.HttpRequestBase, byte[])
+     */
+    @Override
+    protected void addDigest(final HttpRequestBase method, final byte[] md5) {
+        /* Fedora 3 verifies the checksum given in the parameters of the datastream */
+        method.setURI(URI.create(method.getURI() + "&checksumType=MD5&checksum=" + Hex.encodeHexString(md5)));
     }
 
     @Override
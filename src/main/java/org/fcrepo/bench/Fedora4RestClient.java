@@ -5,7 +5,6 @@
 package org.fcrepo.bench;
 
 import static org.fcrepo.bench.TransactionStateManager.TransactionMode.COMMIT;
-import static org.fcrepo.bench.TransactionStateManager.TransactionMode.ROLLBACK;
 
 import java.io.IOException;
 import java.net.URI;
@@ -35,110 +34,93 @@ public class Fedora4RestClient extends FedoraRestClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(Fedora4RestClient.class);
 
+    /* the base URI of the REST API, built once since it is part of every request */
+    private final String restUri;
+
     public Fedora4RestClient(final URI fedoraUri, final TransactionStateManager txManager) {
         super(fedoraUri, FedoraVersion.FCREPO4, txManager);
+        this.restUri = fedoraUri.toString() + "/rest";
     }
 
     private String getFedoraRestUri(final TransactionState tx) {
         if (tx == null) {
-            return this.fedoraUri.toString() + "/rest";
+            return restUri;
         }
-        while (!tx.transactionCreated()) {
-            try {
-                Thread.sleep(10L);
-            } catch (final InterruptedException e) {
-            }
+        /* actions are only released once the creation of their transaction has completed */
+        if (!tx.transactionCreated()) {
+            throw new IllegalStateException("The transaction of the action could not be created");
         }
-        return this.fedoraUri.toString() + "/rest/" + tx.getTransactionId();
+        return restUri + "/" + tx.getTransactionId();
     }
 
-    @Override
-    protected long createObject(final String pid, final TransactionState tx) throws IOException {
-        final String objUri = getFedoraRestUri(tx) + "/objects/" + pid;
-        final HttpPut put = new HttpPut(objUri);
-        final long time = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(put);
-        final long duration = System.currentTimeMillis() - time;
-        put.releaseConnection();
-        if (resp.getStatusLine().getStatusCode() != 201) {
-            throw new IOException("Unable to create object at /objects/" + pid + "\nFedora returned " +
-                    resp.getStatusLine().getStatusCode());
-        }
+    String getObjectUri(final String pid, final TransactionState tx) {
+        return getFedoraRestUri(tx) + "/objects/" + pid;
+    }
+
+    String getDatastreamUri(final String pid, final TransactionState tx) {
+        return getObjectUri(pid, tx) + "/ds1";
+    }
+
+    String getContentUri(final String pid, final TransactionState tx) {
+        return getObjectUri(pid, tx) + "/ds1/fcr:content";
+    }
 
-        return duration;
+    @Override
+    protected FedoraRequest createObjectRequest(final String pid, final TransactionState tx) throws IOException {
+        return new FedoraRequest(new HttpPut(getObjectUri(pid, tx)), 201, "create object at /objects/" + pid);
     }
 
     @Override
-    protected long createDatastream(final String pid, final long size, final TransactionState tx) throws IOException {
-        final String dsUri = getFedoraRestUri(tx) + "/objects/" + pid + "/ds1/fcr:content";
+    protected FedoraRequest createDatastreamRequest(final String pid, final long size, final TransactionState tx)
+            throws IOException {
+        final String dsUri = getContentUri(pid, tx);
         LOG.debug("Creating DS {}", dsUri);
         final HttpPut put = new HttpPut(dsUri);
-        put.setEntity(new BenchToolEntity(size, BenchTool.RANDOM_SLICE));
-        final long start = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(put);
-        final long duration = System.currentTimeMillis() - start;
-        if (resp.getStatusLine().getStatusCode() != 201) {
-            throw new IOException("Unable to create datastream at " + dsUri + "\nFedora returned " +
-                    resp.getStatusLine().getStatusCode());
-        }
-        put.releaseConnection();
-        return duration;
+        put.setEntity(createPayload(pid, size));
+        return new FedoraRequest(put, 201, "create datastream at " + dsUri);
     }
 
     @Override
-    protected long updateDatastream(final String pid, final long size, final TransactionState tx) throws IOException {
-        final String dsUri = getFedoraRestUri(tx) + "/objects/" + pid + "/ds1/fcr:content";
+    protected FedoraRequest updateDatastreamRequest(final String pid, final long size, final TransactionState tx)
+            throws IOException {
+        final String dsUri = getContentUri(pid, tx);
         final HttpPut put = new HttpPut(dsUri);
-        put.setEntity(new BenchToolEntity(size, BenchTool.RANDOM_SLICE));
-        final long start = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(put);
-        final long duration = System.currentTimeMillis() - start;
-        put.releaseConnection();
-        if (resp.getStatusLine().getStatusCode() != 204) {
-            throw new IOException("Unable to update datastream at " + dsUri + "\nFedora returned " +
-                    resp.getStatusLine().getStatusCode());
-        }
-        return duration;
+        put.setEntity(createPayload(pid, size));
+        return new FedoraRequest(put, 204, "update datastream at " + dsUri);
     }
 
     @Override
-    protected long retrieveDatastream(final String pid, final TransactionState tx) throws IOException {
-        final String dsUri = getFedoraRestUri(tx) + "/objects/" + pid + "/ds1/fcr:content";
-        final HttpGet get = new HttpGet(dsUri);
-        final long start = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(get);
-        final long duration = System.currentTimeMillis() - start;
-        get.releaseConnection();
-        if (resp.getStatusLine().getStatusCode() != 200) {
-            throw new IOException("Unable to retrieve datastream from " + dsUri + "\nFedora returned " +
-                    resp.getStatusLine().getStatusCode());
-        }
-        return duration;
+    protected FedoraRequest retrieveDatastreamRequest(final String pid, final TransactionState tx)
+            throws IOException {
+        final String dsUri = getContentUri(pid, tx);
+        return new FedoraRequest(new HttpGet(dsUri), 200, "retrieve datastream from " + dsUri);
     }
 
     @Override
-    protected long deleteObject(final String pid, final TransactionState tx) throws IOException {
-        final HttpDelete delete = new HttpDelete(getFedoraRestUri(tx) + "/objects/" + pid);
-        final long time = System.currentTimeMillis();
-        BenchTool.httpClient.execute(delete);
-        final long duration = System.currentTimeMillis() - time;
-        delete.releaseConnection();
-        return duration;
+    protected FedoraRequest deleteObjectRequest(final String pid, final TransactionState tx) throws IOException {
+        return new FedoraRequest(new HttpDelete(getObjectUri(pid, tx)), FedoraRequest.ANY_STATUS, "delete object " +
+                pid);
     }
 
     @Override
-    protected long deleteDatastream(final String pid, final TransactionState tx) throws IOException {
-        final String dsUri = getFedoraRestUri(tx) + "/objects/" + pid + "/ds1";
-        final HttpDelete delete = new HttpDelete(dsUri);
-        final long start = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(delete);
-        final long duration = System.currentTimeMillis() - start;
-        delete.releaseConnection();
-        if (resp.getStatusLine().getStatusCode() != 204) {
-            throw new IOException("Unable to delete datastream from " + dsUri + "\nFedora returned " +
-                    resp.getStatusLine().getStatusCode());
-        }
-        return duration;
+    protected FedoraRequest deleteDatastreamRequest(final String pid, final TransactionState tx) throws IOException {
+        final String dsUri = getDatastreamUri(pid, tx);
+        return new FedoraRequest(new HttpDelete(dsUri), 204, "delete datastream from " + dsUri);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.fcrepo.bench.FedoraRestClient#listChildrenRequest(java.lang.String, org.fcrepo.bench.TransactionState)
+     */
+    @Override
+    protected FedoraRequest listChildrenRequest(final String pid, final TransactionState tx) throws IOException {
+        final String uri = getObjectUri(pid, tx);
+        final HttpGet get = new HttpGet(uri);
+        /* N-Triples can be counted line by line while they are read, unlike RDF/XML */
+        get.addHeader("Accept", "application/n-triples");
+        get.addHeader("Prefer", "return=representation; include=\"http://www.w3.org/ns/ldp#PreferContainment\"; " +
+                "omit=\"http://www.w3.org/ns/ldp#PreferMembership\"");
+        return new FedoraRequest(get, 200, "list the children of " + uri);
     }
 
     @Override
@@ -163,50 +145,24 @@ public class Fedora4RestClient extends FedoraRestClient {
     }
 
     @Override
-    protected long createTransaction(final TransactionState tx) throws IOException {
-        final String txUri = this.fedoraUri + "/rest/fcr:tx";
-        final HttpPost post = new HttpPost(txUri);
+    protected FedoraRequest createTransactionRequest(final TransactionState tx) throws IOException {
+        final String txUri = restUri + "/fcr:tx";
+        return new FedoraRequest(new HttpPost(txUri), 201, "create transaction") {
 
-        final long start = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(post);
-        final long duration = System.currentTimeMillis() - start;
-        post.releaseConnection();
+            @Override
+            protected void completed(final HttpResponse response) throws IOException {
+                final Header[] locations = response.getHeaders("Location");
+                final String location = locations[0].getValue();
 
-        if (resp.getStatusLine().getStatusCode() != 201) {
-            throw new IOException("Unable to create transaction." + "\nFedora returned " +
-                    resp.getStatusLine().getStatusCode());
-        }
-
-        final Header[] locations = resp.getHeaders("Location");
-        final String location = locations[0].getValue();
-
-        tx.setTransactionId(location.substring(location.lastIndexOf('/') + 1));
-
-        return duration;
-    }
-
-    @Override
-    protected long commitTransaction(final TransactionState transaction) throws IOException {
-        return finishTransaction(transaction, COMMIT);
+                tx.setTransactionId(location.substring(location.lastIndexOf('/') + 1));
+            }
+        };
     }
 
     @Override
-    protected long rollbackTransaction(final TransactionState transaction) throws IOException {
-        return finishTransaction(transaction, ROLLBACK);
-    }
-
-    private long finishTransaction(final TransactionState transaction, final TransactionMode mode) throws IOException {
-
-        // Wait for all actions assigned to this transaction to complete for
-        // multi-threaded runs
-        try {
-            while (!transaction.isReadyForCommit()) {
-                Thread.sleep(5);
-            }
-        } catch (final InterruptedException e) {
-        }
-
-        String txUri = this.fedoraUri + "/rest/" + transaction.getTransactionId();
+    protected FedoraRequest finishTransactionRequest(final TransactionState transaction, final TransactionMode mode)
+            throws IOException {
+        String txUri = restUri + "/" + transaction.getTransactionId();
         if (mode.equals(COMMIT)) {
             txUri += "/fcr:tx/fcr:commit";
         } else {
@@ -215,79 +171,64 @@ public class Fedora4RestClient extends FedoraRestClient {
 
         LOG.debug("Finishing tx {}", txUri);
 
-        final HttpPost post = new HttpPost(txUri);
-
-        final long start = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(post);
-        final long duration = System.currentTimeMillis() - start;
-        post.releaseConnection();
-
-        if (resp.getStatusLine().getStatusCode() != 204) {
-            throw new IOException("Failed to " + mode.toString() + " transaction " + transaction.getTransactionId() +
-                    "\nFedora returned " + resp.getStatusLine().getStatusCode());
-        }
+        return new FedoraRequest(new HttpPost(txUri), 204, mode.toString().toLowerCase() + " transaction " +
+                transaction.getTransactionId());
+    }
 
-        return duration;
+    /*
+     * (non-Javadoc)
+     * @see org.fcrepo.bench.FedoraRestClient#keepAliveTransactionRequest(org.fcrepo.bench.TransactionState)
+     */
+    @Override
+    protected FedoraRequest keepAliveTransactionRequest(final TransactionState transaction) throws IOException {
+        /* posting to the endpoint of an existing transaction renews it */
+        return new FedoraRequest(new HttpPost(restUri + "/" + transaction.getTransactionId() + "/fcr:tx"), 204,
+                "keep transaction " + transaction.getTransactionId() + " alive");
     }
 
     /*
      * (non-Javadoc)
-     * @see org.fcrepo.bench.FedoraRestClient#sparqlUpdate(java.lang.String,
+     * @see org.fcrepo.bench.FedoraRestClient#sparqlInsertRequest(java.lang.String,
      * org.fcrepo.bench.TransactionState)
      */
     @Override
-    protected long sparqlInsert(final String pid, final TransactionState tx) throws IOException {
-        final String uri = getFedoraRestUri(tx) + "/objects/" + pid;
-        final String objectUri = this.fedoraUri + "/rest/objects/" + pid;
+    protected FedoraRequest sparqlInsertRequest(final String pid, final TransactionState tx) throws IOException {
+        final String uri = getObjectUri(pid, tx);
+        final String objectUri = getObjectUri(pid, null);
         final HttpPatch patch = new HttpPatch(uri);
         patch.addHeader("Content-Type", "application/sparql-update");
         final String query =
                 "INSERT { <" + objectUri + "> <http://purl.org/dc/elements/1.1/title> \"" + pid + "\" } WHERE {}";
         patch.setEntity(new StringEntity(query));
-        final long start = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(patch);
-        final long duration = System.currentTimeMillis() - start;
-        if (resp.getStatusLine().getStatusCode() != 204) {
-            throw new IOException("Failed to SPARQL update (INSERT) with " + pid + "");
-        }
-        patch.releaseConnection();
-        return duration;
+        return new FedoraRequest(patch, 204, "SPARQL update (INSERT) with " + pid);
     }
 
     /*
      * (non-Javadoc)
-     * @see org.fcrepo.bench.FedoraRestClient#sparqlSelect(java.lang.String,
+     * @see org.fcrepo.bench.FedoraRestClient#sparqlSelectRequest(java.lang.String,
      * org.fcrepo.bench.TransactionState)
      */
     @Override
-    protected long sparqlSelect(final String pid, final TransactionState tx) throws IOException {
-        final String sparqlUri = this.fedoraUri + "/rest/fcr:sparql";
-        final String objectUri = this.fedoraUri + "/rest/objects/" + pid;
+    protected FedoraRequest sparqlSelectRequest(final String pid, final TransactionState tx) throws IOException {
+        final String sparqlUri = restUri + "/fcr:sparql";
+        final String objectUri = getObjectUri(pid, null);
         final HttpPost post = new HttpPost(sparqlUri);
         final String query =
                 "SELECT ?s FROM <" + objectUri + "> WHERE {?s <http://purl.org/dc/elements/1.1/title> \"" + pid +
                 "\"}";
         post.addHeader("Content-Type", "application/sparql-query");
         post.setEntity(new StringEntity(query));
-        final long start = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(post);
-        final long duration = System.currentTimeMillis() - start;
-        if (resp.getStatusLine().getStatusCode() != 200) {
-            System.out.println(resp.getStatusLine().getStatusCode());
-            throw new IOException("Failed to select SPARQL with " + query);
-        }
-        post.releaseConnection();
-        return duration;
+        return new FedoraRequest(post, 200, "select SPARQL with " + query);
     }
 
     /*
      * (non-Javadoc)
-     * @see org.fcrepo.bench.FedoraRestClient#sparqlUpdate(java.lang.String, org.fcrepo.bench.TransactionState)
+     * @see org.fcrepo.bench.FedoraRestClient#sparqlUpdateRequest(java.lang.String, org.fcrepo.bench.TransactionState)
      */
     @Override
-    protected long sparqlUpdate(final String pid, final TransactionState tx) throws IOException {
-        final String uri = getFedoraRestUri(tx) + "/objects/" + pid;
-        final String objectUri = this.fedoraUri + "/rest/objects/" + pid;
+    protected FedoraRequest sparqlUpdateRequest(final String pid, final TransactionState tx) throws IOException {
+        final String uri = getObjectUri(pid, tx);
+        final String objectUri = getObjectUri(pid, null);
         final HttpPatch patch = new HttpPatch(uri);
         patch.addHeader("Content-Type", "application/sparql-update");
         final String query =
@@ -295,37 +236,23 @@ public class Fedora4RestClient extends FedoraRestClient {
                         objectUri + "> <http://purl.org/dc/elements/1.1/title> \"" + pid + "-updated\" }" +
                         " WHERE { <" + objectUri + "> <http://purl.org/dc/elements/1.1/title> ?s }";
         patch.setEntity(new StringEntity(query));
-        final long start = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(patch);
-        final long duration = System.currentTimeMillis() - start;
-        if (resp.getStatusLine().getStatusCode() != 204) {
-            throw new IOException("Failed SPARQL update (DELETE/INSERT) with " + pid + "");
-        }
-        patch.releaseConnection();
-        return duration;
+        return new FedoraRequest(patch, 204, "SPARQL update (DELETE/INSERT) with " + pid);
     }
 
     /*
      * (non-Javadoc)
-     * @see org.fcrepo.bench.FedoraRestClient#sparqlDelete(java.lang.String, org.fcrepo.bench.TransactionState)
+     * @see org.fcrepo.bench.FedoraRestClient#sparqlDeleteRequest(java.lang.String, org.fcrepo.bench.TransactionState)
      */
     @Override
-    protected long sparqlDelete(final String pid, final TransactionState tx) throws IOException {
-        final String uri = getFedoraRestUri(tx) + "/objects/" + pid;
-        final String objectUri = this.fedoraUri + "/rest/objects/" + pid;
+    protected FedoraRequest sparqlDeleteRequest(final String pid, final TransactionState tx) throws IOException {
+        final String uri = getObjectUri(pid, tx);
+        final String objectUri = getObjectUri(pid, null);
         final HttpPatch patch = new HttpPatch(uri);
         patch.addHeader("Content-Type", "application/sparql-update");
         final String query =
                 " DELETE { <" + objectUri + "> <http://purl.org/dc/elements/1.1/title> ?t }" + " WHERE { <" +
                         objectUri + "> <http://purl.org/dc/elements/1.1/title> ?t }";
         patch.setEntity(new StringEntity(query));
-        final long start = System.currentTimeMillis();
-        final HttpResponse resp = BenchTool.httpClient.execute(patch);
-        final long duration = System.currentTimeMillis() - start;
-        if (resp.getStatusLine().getStatusCode() != 204) {
-            throw new IOException("Failed to SPARQL update (DELETE) with " + pid + "");
-        }
-        patch.releaseConnection();
-        return duration;
+        return new FedoraRequest(patch, 204, "SPARQL update (DELETE) with " + pid);
     }
 }
@@ -0,0 +1,125 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * A request to the Fedora REST API together with the status code Fedora has
+ * to respond with. Separating the request from its execution lets the
+ * blocking and the non-blocking engine perform the same actions.
+ */
+public class FedoraRequest {
+
+    /* accept whatever Fedora returns */
+    public static final int ANY_STATUS = -1;
+
+    private final HttpRequestBase method;
+
+    private final int expectedStatus;
+
+    private final String description;
+
+    /* null unless the fixity of the content sent or read is checked */
+    private Fixity.Check check;
+
+    /* null unless the response lists the children of a container */
+    private ContainmentCounter counter;
+
+    /**
+     * @param method the HTTP request
+     * @param expectedStatus the status code of a successful response or
+     *        {@link #ANY_STATUS}
+     * @param description what the request does, used in error messages
+     */
+    public FedoraRequest(final HttpRequestBase method, final int expectedStatus, final String description) {
+        super();
+        this.method = method;
+        this.expectedStatus = expectedStatus;
+        this.description = description;
+    }
+
+    public HttpRequestBase getMethod() {
+        return method;
+    }
+
+    void setCheck(final Fixity.Check check) {
+        this.check = check;
+    }
+
+    void setCounter(final ContainmentCounter counter) {
+        this.counter = counter;
+    }
+
+    /**
+     * @return the counter the engines feed the response body into while they
+     *         read it or null
+     */
+    ContainmentCounter getCounter() {
+        return counter;
+    }
+
+    /**
+     * Called by the engines right before the request is sent, so that the
+     * time to compute the digest of the content is part of the action
+     */
+    void beforeSend() {
+        if (check != null) {
+            check.beforeSend(method);
+        }
+    }
+
+    /**
+     * @return the digest the engines feed the response body into while they
+     *         read it or null
+     */
+    MessageDigest getBodyDigest() {
+        return check == null ? null : check.getBodyDigest();
+    }
+
+    /**
+     * Called by the engines once the whole response body has been read
+     * @param bodyBytes the size of the response body
+     * @throws IOException if the fixity check failed
+     */
+    void bodyRead(final long bodyBytes) throws IOException {
+        if (check != null) {
+            check.completed(bodyBytes);
+        }
+    }
+
+    /**
+     * Check the status of the response and pass it on to
+     * {@link #completed(HttpResponse)}
+     * @param response the response to the request
+     * @throws IOException if Fedora did not respond as expected
+     */
+    public void verify(final HttpResponse response) throws IOException {
+        final int status = response.getStatusLine().getStatusCode();
+        if (expectedStatus != ANY_STATUS && status != expectedStatus) {
+            throw new IOException("Unable to " + description + "\nFedora returned " + status);
+        }
+        completed(response);
+    }
+
+    /**
+     * Called with the successful response, before its body has been read.
+     * Requests which have to evaluate the response headers override this
+     * method.
+     * @param response the response to the request
+     * @throws IOException
+     */
+    protected void completed(final HttpResponse response) throws IOException {
+    }
+
+    @Override
+    public String toString() {
+        return method.getMethod() + " " + method.getURI();
+    }
+}
@@ -2,10 +2,25 @@
 package org.fcrepo.bench;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import org.apache.commons.codec.binary.Base64;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.fcrepo.bench.BenchTool.Action;
 import org.fcrepo.bench.BenchTool.FedoraVersion;
+import org.fcrepo.bench.TransactionStateManager.TransactionMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,12 +28,25 @@ public abstract class FedoraRestClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(FedoraRestClient.class);
 
+    /*
+     * reused for discarding response bodies, so that reading them does not
+     * allocate. Pooled instead of thread local, since virtual threads are not
+     * reused and would allocate a buffer for every action
+     */
+    private static final Queue<byte[]> DISCARD_BUFFERS = new ConcurrentLinkedQueue<>();
+
     protected final FedoraVersion version;
 
     protected final URI fedoraUri;
 
     protected final TransactionStateManager txManager;
 
+    /* null unless the fixity of the datastreams is checked */
+    private Fixity fixity;
+
+    /* whether the payloads are generated reproducibly even if their fixity is not checked */
+    private boolean reproducible;
+
     public FedoraRestClient(final URI fedoraUri, final FedoraVersion version, final TransactionStateManager txManager) {
         super();
         this.version = version;
@@ -34,29 +62,248 @@ public abstract class FedoraRestClient {
         return txManager;
     }
 
-    protected abstract long deleteDatastream(String pid, TransactionState tx) throws IOException;
+    /**
+     * @param fixity the digests of the datastreams written and read with
+     *        this client or null in order not to check their fixity
+     */
+    public void setFixity(final Fixity fixity) {
+        this.fixity = fixity;
+    }
 
-    protected abstract long deleteObject(String pid, TransactionState tx) throws IOException;
+    public Fixity getFixity() {
+        return fixity;
+    }
 
-    protected abstract long createObject(String pid, TransactionState tx) throws IOException;
+    /**
+     * @param reproducible whether to generate the payloads from their pid and
+     *        size even if their fixity is not checked, so that later phases
+     *        checking fixity can verify the datastreams written
+     */
+    public void setReproducible(final boolean reproducible) {
+        this.reproducible = reproducible;
+    }
 
-    protected abstract long createDatastream(String pid, long size, TransactionState tx) throws IOException;
+    /**
+     * @param pid the object the payload is written to
+     * @param size the size of the payload
+     * @return the content of a datastream to send. The payload is
+     *         reproducible if fixity is checked, so that its digest can be
+     *         computed without buffering it and be derived again on reads
+     */
+    protected BenchToolEntity createPayload(final String pid, final long size) {
+        if (fixity == null && !reproducible) {
+            return new BenchToolEntity(size, BenchTool.RANDOM_SLICE);
+        }
+        return Fixity.payload(pid, size);
+    }
 
-    protected abstract long retrieveDatastream(String pid, TransactionState tx) throws IOException;
+    /**
+     * Send the MD5 digest of the content along with a request writing a
+     * datastream, so that Fedora verifies it has received the content intact
+     * @param method the request writing the datastream
+     * @param md5 the digest of the content
+     */
+    protected void addDigest(final HttpRequestBase method, final byte[] md5) {
+        final String base64 = Base64.encodeBase64String(md5);
+        method.setHeader("Content-MD5", base64);
+        method.setHeader("Digest", "md5=" + base64);
+    }
 
-    protected abstract long updateDatastream(String pid, long size, TransactionState tx) throws IOException;
+    /* check the content written by a request if fixity is checked */
+    private FedoraRequest checkUpload(final String pid, final FedoraRequest request) {
+        if (fixity != null) {
+            final HttpEntityEnclosingRequestBase method = (HttpEntityEnclosingRequestBase) request.getMethod();
+            request.setCheck(fixity.upload((BenchToolEntity) method.getEntity(), this));
+        }
+        return request;
+    }
+
+    /* check the content read by a request if fixity is checked */
+    private FedoraRequest checkDownload(final String pid, final FedoraRequest request) {
+        if (fixity != null) {
+            request.setCheck(fixity.download(pid));
+        }
+        return request;
+    }
+
+    protected abstract FedoraRequest deleteDatastreamRequest(String pid, TransactionState tx) throws IOException;
+
+    protected abstract FedoraRequest deleteObjectRequest(String pid, TransactionState tx) throws IOException;
+
+    protected abstract FedoraRequest createObjectRequest(String pid, TransactionState tx) throws IOException;
+
+    protected abstract FedoraRequest createDatastreamRequest(String pid, long size, TransactionState tx)
+            throws IOException;
+
+    protected abstract FedoraRequest retrieveDatastreamRequest(String pid, TransactionState tx) throws IOException;
+
+    protected abstract FedoraRequest updateDatastreamRequest(String pid, long size, TransactionState tx)
+            throws IOException;
 
     protected abstract int getClusterSize() throws IOException;
 
+    /**
+     * @param pid the pid of the container
+     * @param tx the Transaction to use if any
+     * @return a request retrieving the children of a container as N-Triples
+     */
+    protected FedoraRequest listChildrenRequest(final String pid, final TransactionState tx) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param pid the pid of the object's sparql record
+     * @param tx the Transaction to use if any
+     * @return a request executing a SPARQL INSERT query
+     */
+    protected FedoraRequest sparqlInsertRequest(final String pid, final TransactionState tx) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param pid the pid of the object's sparql record
+     * @param tx the Transaction to use if any
+     * @return a request executing a SPARQL SELECT query
+     */
+    protected FedoraRequest sparqlSelectRequest(final String pid, final TransactionState tx) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param pid the pid of the object's sparql record
+     * @param tx the Transaction to use if any
+     * @return a request executing a SPARQL DELETE and INSERT query
+     */
+    protected FedoraRequest sparqlUpdateRequest(final String pid, final TransactionState tx) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param pid the pid of the object's sparql record
+     * @param tx the Transaction to use if any
+     * @return a request executing a SPARQL DELETE query
+     */
+    protected FedoraRequest sparqlDeleteRequest(final String pid, final TransactionState tx) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param tx the Transaction which is assigned the ID of the created
+     *        transaction once the request has completed
+     * @return a request creating a new transaction
+     */
+    protected FedoraRequest createTransactionRequest(final TransactionState tx) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param tx the Transaction to finish
+     * @param mode {@link TransactionMode#COMMIT} or
+     *        {@link TransactionMode#ROLLBACK}
+     * @return a request committing or rolling back the transaction
+     */
+    protected FedoraRequest finishTransactionRequest(final TransactionState tx, final TransactionMode mode)
+            throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param tx the Transaction to keep alive
+     * @return a request extending the lifetime of the transaction
+     */
+    protected FedoraRequest keepAliveTransactionRequest(final TransactionState tx) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    protected long deleteDatastream(final String pid, final TransactionState tx) throws IOException {
+        return execute(deleteDatastreamRequest(pid, tx));
+    }
+
+    protected long deleteObject(final String pid, final TransactionState tx) throws IOException {
+        return execute(deleteObjectRequest(pid, tx));
+    }
+
+    protected long createObject(final String pid, final TransactionState tx) throws IOException {
+        return execute(createObjectRequest(pid, tx));
+    }
+
+    protected long createDatastream(final String pid, final long size, final TransactionState tx)
+            throws IOException {
+        return execute(checkUpload(pid, createDatastreamRequest(pid, size, tx)));
+    }
+
+    /**
+     * Ingests the content of a file instead of a generated payload
+     * 
+     * @return the time required to ingest the file in nanoseconds
+     */
+    protected long createDatastream(final String pid, final SourceFileEntity content, final TransactionState tx)
+            throws IOException {
+        return execute(createDatastreamRequest(pid, content, tx));
+    }
+
+    /**
+     * @param content the file to send as the content of the datastream
+     * @return the request creating a datastream with the content of a file.
+     *         Files are sent as they are, so their fixity is not checked
+     */
+    final FedoraRequest createDatastreamRequest(final String pid, final SourceFileEntity content,
+            final TransactionState tx) throws IOException {
+        final FedoraRequest request = createDatastreamRequest(pid, content.getContentLength(), tx);
+        ((HttpEntityEnclosingRequestBase) request.getMethod()).setEntity(content);
+        return request;
+    }
+
+    /**
+     * Retrieves the whole content of the datastream. The time to the first
+     * and the last byte and the number of bytes read are marked in the
+     * calling thread's {@link RequestTimings}
+     * 
+     * @return the time to the last byte of the content in nanoseconds
+     */
+    protected long retrieveDatastream(final String pid, final TransactionState tx) throws IOException {
+        return execute(checkDownload(pid, retrieveDatastreamRequest(pid, tx)));
+    }
+
+    protected long updateDatastream(final String pid, final long size, final TransactionState tx)
+            throws IOException {
+        return execute(checkUpload(pid, updateDatastreamRequest(pid, size, tx)));
+    }
+
+    /**
+     * Lists the children of a container, counting them while the response is
+     * read
+     * 
+     * @param pid the pid of the container
+     * @param counter the counter fed with the response
+     * @param tx the Transaction to use if any
+     * @return the time to the last byte of the listing in nanoseconds
+     */
+    protected long listChildren(final String pid, final ContainmentCounter counter, final TransactionState tx)
+            throws IOException {
+        return execute(listChildrenRequest(pid, counter, tx));
+    }
+
+    /**
+     * @return the request listing the children of a container, which feeds
+     *         the response into the counter
+     */
+    final FedoraRequest listChildrenRequest(final String pid, final ContainmentCounter counter,
+            final TransactionState tx) throws IOException {
+        final FedoraRequest request = listChildrenRequest(pid, tx);
+        request.setCounter(counter);
+        return request;
+    }
+
     /**
      * Calls Fedora's SPARQL endpoint in order to execute an INSERT query
      * 
      * @param pid the pid of the object's sparql record
      * @param tx the Transaction to use if any
-     * @return the time required to execute the query
+     * @return the time required to execute the query in nanoseconds
      */
     protected long sparqlInsert(final String pid, final TransactionState tx) throws IOException {
-        throw new UnsupportedOperationException();
+        return execute(sparqlInsertRequest(pid, tx));
     }
 
     /**
@@ -64,10 +311,10 @@ public abstract class FedoraRestClient {
      * 
      * @param pid the pid of the object's sparql record
      * @param tx the Transaction to use if any
-     * @return the time required to execute the query
+     * @return the time required to execute the query in nanoseconds
      */
     protected long sparqlSelect(final String pid, final TransactionState tx) throws IOException {
-        throw new UnsupportedOperationException();
+        return execute(sparqlSelectRequest(pid, tx));
     }
 
     /**
@@ -75,10 +322,10 @@ public abstract class FedoraRestClient {
      * 
      * @param pid the pid of the object's sparql record
      * @param tx the Transaction to use if any
-     * @return the time required to execute the query
+     * @return the time required to execute the query in nanoseconds
      */
     protected long sparqlUpdate(final String pid, final TransactionState tx) throws IOException {
-        throw new UnsupportedOperationException();
+        return execute(sparqlUpdateRequest(pid, tx));
     }
 
     /**
@@ -86,55 +333,118 @@ public abstract class FedoraRestClient {
      * 
      * @param pid the pid of the object's sparql record
      * @param tx the Transaction to use if any
-     * @return the time required to execute the query
+     * @return the time required to execute the query in nanoseconds
      */
     protected long sparqlDelete(final String pid, final TransactionState tx) throws IOException {
-        throw new UnsupportedOperationException();
+        return execute(sparqlDeleteRequest(pid, tx));
     }
 
-    final void purgeObjects(final List<String> pids, final TransactionState tx) {
-        for (final String pid : pids) {
-            try {
-                this.deleteObject(pid, tx);
-            } catch (final IOException e) {
-                LOG.error("Unable to purge objects in Fedora", e);
-            }
+    /**
+     * Creates a single object and everything the given actions require to
+     * exist before they can be performed on the object
+     * 
+     * @param pid the pid of the object
+     * @param actions the actions which will be performed on the object
+     * @param size the size of the datastream to create if an action requires
+     *        one
+     * @param tx the Transaction to use if any
+     */
+    final void prepareObject(final String pid, final Set<Action> actions, final long size,
+            final TransactionState tx) throws IOException {
+        for (final FedoraRequest request : prepareRequests(pid, actions, size, tx)) {
+            this.execute(request);
         }
     }
 
-    final long createObjects(final List<String> pids, final TransactionState tx) {
-        long duration = 0;
-        for (final String pid : pids) {
-            try {
-                duration += this.createObject(pid, tx);
-            } catch (final IOException e) {
-                LOG.error("Unable to prepare objects in Fedora", e);
-            }
-        }
-        return duration;
+    /**
+     * @see #prepareObject(String, Set, long, TransactionState)
+     */
+    final void prepareObject(final String pid, final Action action, final long size, final TransactionState tx)
+            throws IOException {
+        prepareObject(pid, Collections.singleton(action), size, tx);
     }
 
-    public void createDatastreams(final List<String> pids, final long size, final TransactionState tx) {
-        for (final String pid : pids) {
-            try {
-                this.createDatastream(pid, size, tx);
-            } catch (final IOException e) {
-                LOG.error("Unable to prepare datastream in Fedora", e);
-            }
-        }
+    /**
+     * @return the requests creating a single object and everything the given
+     *         action requires to exist, in the order they have to be executed
+     * @see #prepareObject(String, Action, long, TransactionState)
+     */
+    final List<FedoraRequest> prepareRequests(final String pid, final Action action, final long size,
+            final TransactionState tx) throws IOException {
+        return prepareRequests(pid, Collections.singleton(action), size, tx);
     }
 
-    public void createProperties(final List<String> pids, final TransactionState tx) {
-        if (version == FedoraVersion.FCREPO3) {
-            throw new UnsupportedOperationException();
+    /**
+     * @return the requests creating a single object and everything the given
+     *         actions require to exist, in the order they have to be executed
+     * @see #prepareObject(String, Set, long, TransactionState)
+     */
+    final List<FedoraRequest> prepareRequests(final String pid, final Set<Action> actions, final long size,
+            final TransactionState tx) throws IOException {
+        final List<FedoraRequest> requests = new ArrayList<>(3);
+        requests.add(this.createObjectRequest(pid, tx));
+        if (requiresDatastream(actions)) {
+            requests.add(checkUpload(pid, this.createDatastreamRequest(pid, size, tx)));
+        }
+        if (requiresProperty(actions)) {
+            requests.add(this.sparqlInsertRequest(pid, tx));
         }
+        return requests;
+    }
 
-        for (final String pid : pids) {
-            try {
-                this.sparqlInsert(pid, tx);
-            } catch (final IOException e) {
-                LOG.error("Unable to prepare property in Fedora", e);
-            }
+    /**
+     * @return true if one of the actions is performed on the datastream of an
+     *         object
+     */
+    static boolean requiresDatastream(final Set<Action> actions) {
+        return actions.contains(Action.UPDATE) || actions.contains(Action.READ) || actions.contains(Action.DELETE);
+    }
+
+    /**
+     * @return true if one of the actions is performed on the property of an
+     *         object
+     */
+    static boolean requiresProperty(final Set<Action> actions) {
+        return actions.contains(Action.SPARQL_SELECT) || actions.contains(Action.UPDATE_PROPERTY) ||
+                actions.contains(Action.READ_PROPERTY) || actions.contains(Action.DELETE_PROPERTY);
+    }
+
+    /**
+     * @param action the action to perform
+     * @param pid the pid of the object the action is performed on
+     * @param size the size of the datastream to send if the action sends one
+     * @param tx the Transaction to use if any
+     * @return the request performing the action
+     */
+    final FedoraRequest createRequest(final Action action, final String pid, final long size,
+            final TransactionState tx) throws IOException {
+        switch (action) {
+        case INGEST:
+            return checkUpload(pid, createDatastreamRequest(pid, size, tx));
+        case UPDATE:
+            return checkUpload(pid, updateDatastreamRequest(pid, size, tx));
+        case READ:
+            return checkDownload(pid, retrieveDatastreamRequest(pid, tx));
+        case DELETE:
+            return deleteDatastreamRequest(pid, tx);
+        case SPARQL_INSERT:
+        case CREATE_PROPERTY:
+            return sparqlInsertRequest(pid, tx);
+        case SPARQL_SELECT:
+        case READ_PROPERTY:
+            return sparqlSelectRequest(pid, tx);
+        case UPDATE_PROPERTY:
+            return sparqlUpdateRequest(pid, tx);
+        case DELETE_PROPERTY:
+            return sparqlDeleteRequest(pid, tx);
+        case CREATE_TX:
+            return createTransactionRequest(tx);
+        case COMMIT_TX:
+            return finishTransactionRequest(tx, TransactionMode.COMMIT);
+        case ROLLBACK_TX:
+            return finishTransactionRequest(tx, TransactionMode.ROLLBACK);
+        default:
+            throw new IllegalArgumentException("The Action " + action.name() + " can not be sent to Fedora");
         }
     }
 
@@ -148,7 +458,19 @@ public abstract class FedoraRestClient {
      * @throws IOException
      */
     protected long createTransaction(final TransactionState tx) throws IOException {
-        throw new UnsupportedOperationException();
+        return execute(createTransactionRequest(tx));
+    }
+
+    /**
+     * Tells the Fedora API to keep the transaction provided alive, which it
+     * would expire otherwise
+     * 
+     * @param transaction
+     * @return
+     * @throws IOException
+     */
+    protected long keepAliveTransaction(final TransactionState transaction) throws IOException {
+        return execute(keepAliveTransactionRequest(transaction));
     }
 
     /**
@@ -159,7 +481,8 @@ public abstract class FedoraRestClient {
      * @throws IOException
      */
     protected long commitTransaction(final TransactionState transaction) throws IOException {
-        throw new UnsupportedOperationException();
+        checkReadyForCommit(transaction);
+        return execute(finishTransactionRequest(transaction, TransactionMode.COMMIT));
     }
 
     /**
@@ -170,7 +493,83 @@ public abstract class FedoraRestClient {
      * @throws IOException
      */
     protected long rollbackTransaction(final TransactionState transaction) throws IOException {
-        throw new UnsupportedOperationException();
+        checkReadyForCommit(transaction);
+        return execute(finishTransactionRequest(transaction, TransactionMode.ROLLBACK));
+    }
+
+    /* the commit or rollback is only released once all the actions of the transaction have completed */
+    private void checkReadyForCommit(final TransactionState transaction) {
+        if (!transaction.isReadyForCommit()) {
+            throw new IllegalStateException("Transaction " + transaction.getTransactionId() +
+                    " still has actions in flight");
+        }
+    }
+
+    /**
+     * Executes the request using the blocking client and reads the whole
+     * response. The time to the first and the last byte and the number of
+     * bytes read are marked in the calling thread's {@link RequestTimings}
+     * 
+     * @param request the request to execute
+     * @return the time to the last byte of the response in nanoseconds
+     * @throws IOException if the request failed or Fedora did not respond as
+     *         expected
+     */
+    protected long execute(final FedoraRequest request) throws IOException {
+        final HttpRequestBase method = request.getMethod();
+        final RequestTimings timings = RequestTimings.current();
+        timings.begin();
+        try {
+            request.beforeSend();
+            final HttpResponse resp = BenchTool.httpClient.execute(method);
+            timings.firstByte();
+            timings.setStatus(resp.getStatusLine().getStatusCode());
+            request.verify(resp);
+            final long bytes = consume(resp.getEntity(), request.getBodyDigest(), request.getCounter());
+            final long time = timings.lastByte(bytes);
+            request.bodyRead(bytes);
+            return time;
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    /**
+     * Reads the whole content of a response entity and discards it, so that
+     * the connection can be reused. The content is fed into a digest on the
+     * way if its fixity is checked and into a counter if it lists children
+     * 
+     * @param entity the entity to consume, may be null
+     * @param digest the digest to update with the content or null
+     * @param counter the counter to feed the content into or null
+     * @return the number of bytes read
+     * @throws IOException
+     */
+    protected static long consume(final HttpEntity entity, final MessageDigest digest,
+            final ContainmentCounter counter) throws IOException {
+        if (entity == null) {
+            return 0;
+        }
+        byte[] buffer = DISCARD_BUFFERS.poll();
+        if (buffer == null) {
+            buffer = new byte[65536];
+        }
+        long bytes = 0;
+        try (final InputStream in = entity.getContent()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes += read;
+                if (digest != null) {
+                    digest.update(buffer, 0, read);
+                }
+                if (counter != null) {
+                    counter.update(buffer, 0, read);
+                }
+            }
+        } finally {
+            DISCARD_BUFFERS.offer(buffer);
+        }
+        return bytes;
     }
 
     public static FedoraRestClient createClient(final URI fedoraUri, final FedoraVersion version,
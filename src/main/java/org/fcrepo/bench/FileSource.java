@@ -0,0 +1,219 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The files ingested instead of generated payloads, e.g. a batch of a real
+ * migration. The files are found by walking a directory or listed in a
+ * manifest, one path per line, relative to the manifest. A prefetching thread
+ * opens the files and reads their first pages into the page cache ahead of
+ * the workers, bounded by a queue, so that neither the disk nor the file
+ * system stall the threads sending the requests. Once all the files have
+ * been handed out the source starts over.
+ */
+public class FileSource implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileSource.class);
+
+    /* the most files opened ahead of the workers, bounds the number of open files */
+    private static final int MAX_PREFETCH = 256;
+
+    /* the most bytes of a file read ahead into the page cache */
+    private static final long READ_AHEAD = 64 * 1024 * 1024;
+
+    private final Path path;
+
+    private final BlockingQueue<SourceFileEntity> prefetched;
+
+    private final Thread prefetcher;
+
+    private volatile IOException failure;
+
+    /**
+     * @param path a directory or a manifest listing the files
+     * @param prefetch the number of files to open ahead of the workers
+     */
+    public FileSource(final String path, final int prefetch) throws IOException {
+        super();
+        this.path = Paths.get(path);
+        if (!Files.isReadable(this.path)) {
+            throw new IOException("The source " + path + " can not be read");
+        }
+        this.prefetched = new ArrayBlockingQueue<>(Math.max(1, Math.min(prefetch, MAX_PREFETCH)));
+        this.prefetcher = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                prefetch();
+            }
+        }, "file-prefetcher");
+        this.prefetcher.setDaemon(true);
+        this.prefetcher.start();
+    }
+
+    /**
+     * @return the next file to ingest, opened and read ahead
+     * @throws IOException if the source does not contain any readable files
+     */
+    public SourceFileEntity take() throws IOException, InterruptedException {
+        while (true) {
+            final SourceFileEntity next = prefetched.poll(100, TimeUnit.MILLISECONDS);
+            if (next != null) {
+                return next;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private void prefetch() {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+        try {
+            while (true) {
+                final int count = Files.isDirectory(path) ? walk(buffer) : readManifest(buffer);
+                if (count == 0) {
+                    throw new IOException("The source " + path + " does not contain any readable files");
+                }
+                LOG.info("All {} file(s) of {} have been handed out, starting over", count, path);
+            }
+        } catch (final InterruptedIOException e) {
+            /* closed */
+        } catch (final IOException e) {
+            failure = e;
+        }
+    }
+
+    private int walk(final ByteBuffer buffer) throws IOException {
+        final int[] count = new int[1];
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile() && offer(file, buffer)) {
+                    count[0]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                LOG.warn("Skipping {}, which can not be read: {}", file, e.toString());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return count[0];
+    }
+
+    private int readManifest(final ByteBuffer buffer) throws IOException {
+        final Path base = path.toAbsolutePath().getParent();
+        int count = 0;
+        try (final BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#") && offer(base.resolve(line), buffer)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Open a file, read it ahead and wait for the workers to make room for it
+     * @return false if the file can not be read
+     */
+    private boolean offer(final Path file, final ByteBuffer buffer) throws InterruptedIOException {
+        final SourceFileEntity entity;
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            entity = new SourceFileEntity(file, channel);
+            final long end = Math.min(READ_AHEAD, entity.getContentLength());
+            long position = 0;
+            while (position < end) {
+                ((Buffer) buffer).clear();
+                final int read = channel.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                position += read;
+            }
+        } catch (final ClosedByInterruptException e) {
+            throw new InterruptedIOException();
+        } catch (final IOException e) {
+            LOG.warn("Skipping {}, which can not be read: {}", file, e.toString());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (final IOException ignored) {
+                    /* the file is skipped anyway */
+                }
+            }
+            return false;
+        }
+        try {
+            prefetched.put(entity);
+            return true;
+        } catch (final InterruptedException e) {
+            closeQuietly(entity);
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Stop prefetching and close the files which have not been taken
+     */
+    @Override
+    public void close() throws IOException {
+        prefetcher.interrupt();
+        try {
+            prefetcher.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        SourceFileEntity entity;
+        while ((entity = prefetched.poll()) != null) {
+            closeQuietly(entity);
+        }
+    }
+
+    private static void closeQuietly(final SourceFileEntity entity) {
+        try {
+            entity.close();
+        } catch (final IOException e) {
+            LOG.debug("Unable to close {}", entity.getPath(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+}
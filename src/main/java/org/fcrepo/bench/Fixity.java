@@ -0,0 +1,164 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * End to end fixity of the datastreams of a {@link Dataset}. Payloads are
+ * generated reproducibly from a seed derived from the pid and the size of the
+ * datastream, so that their MD5 digest can be computed in a single pass over
+ * the generator right before they are sent, without buffering them. The
+ * digest is sent along with the payload for Fedora to verify. Reads feed the
+ * response body into a digest as it is consumed and compare it with the
+ * digest of the payload regenerated from the pid and the number of bytes
+ * read, so silent corruption is reported as a failed action. Nothing is kept
+ * per object, and whatever content a committed or rolled back transaction
+ * leaves behind verifies alike.
+ */
+public class Fixity {
+
+    static final String ALGORITHM = "MD5";
+
+    private final AtomicLong verified = new AtomicLong();
+
+    /**
+     * @param pid the object the payload is written to
+     * @param size the size of the payload
+     * @return the payload of the datastream of the object, the same for the
+     *         same pid and size
+     */
+    static BenchToolEntity payload(final String pid, final long size) {
+        /* FNV-1a of the pid, mixed with the size by the finalizer of MurmurHash3 */
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < pid.length(); i++) {
+            hash = (hash ^ pid.charAt(i)) * 0x100000001B3L;
+        }
+        hash ^= size;
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        /* a seed of 0 draws from the thread's random generator */
+        return new BenchToolEntity(size, BenchTool.RANDOM_SLICE, (hash ^ (hash >>> 33)) | 1);
+    }
+
+    /**
+     * @param entity the reproducible payload
+     * @param client the client adding the digest to the request
+     * @return the check of a request writing a datastream
+     */
+    Check upload(final BenchToolEntity entity, final FedoraRestClient client) {
+        return new Upload(entity, client);
+    }
+
+    /**
+     * @param pid the object whose datastream is read
+     * @return the check of a request reading a datastream
+     */
+    Check download(final String pid) {
+        return new Download(pid);
+    }
+
+    /**
+     * @return the number of reads whose content has been verified
+     */
+    public long getVerified() {
+        return verified.get();
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JRE has to support " + ALGORITHM, e);
+        }
+    }
+
+    /**
+     * The fixity check of a single request, performed by both the blocking
+     * and the non-blocking engine
+     */
+    abstract static class Check {
+
+        /**
+         * Called right before the request is sent
+         * @param method the request
+         */
+        void beforeSend(final HttpRequestBase method) {
+        }
+
+        /**
+         * @return the digest the response body is fed into as it is read or
+         *         null
+         */
+        MessageDigest getBodyDigest() {
+            return null;
+        }
+
+        /**
+         * Called once the body of the successful response has been read
+         * @param bodyBytes the size of the response body
+         * @throws IOException if the check failed
+         */
+        void completed(final long bodyBytes) throws IOException {
+        }
+    }
+
+    private static class Upload extends Check {
+
+        private final BenchToolEntity entity;
+
+        private final FedoraRestClient client;
+
+        private byte[] digest;
+
+        private Upload(final BenchToolEntity entity, final FedoraRestClient client) {
+            this.entity = entity;
+            this.client = client;
+        }
+
+        @Override
+        void beforeSend(final HttpRequestBase method) {
+            if (digest == null) {
+                digest = entity.digest(newDigest());
+                client.addDigest(method, digest);
+            }
+        }
+    }
+
+    private class Download extends Check {
+
+        private final String pid;
+
+        private final MessageDigest body = newDigest();
+
+        private Download(final String pid) {
+            this.pid = pid;
+        }
+
+        @Override
+        MessageDigest getBodyDigest() {
+            return body;
+        }
+
+        @Override
+        void completed(final long bodyBytes) throws IOException {
+            final byte[] actual = body.digest();
+            final byte[] expected = payload(pid, bodyBytes).digest(newDigest());
+            if (!Arrays.equals(actual, expected)) {
+                throw new IOException("Fixity check of the datastream of " + pid + " failed: expected " + ALGORITHM +
+                        " " + Hex.encodeHexString(expected) + " for " + bodyBytes + " byte(s) but read " +
+                        Hex.encodeHexString(actual));
+            }
+            verified.incrementAndGet();
+        }
+    }
+}
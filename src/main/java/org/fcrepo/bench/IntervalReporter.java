@@ -0,0 +1,173 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.fcrepo.bench.BenchTool.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.icu.text.DecimalFormat;
+
+/**
+ * Reports the throughput and latency of a running benchmark at a fixed
+ * interval, so that warmup curves, pauses and a collapsing throughput can be
+ * seen while a long run is still going. The reporter only reads the wait-free
+ * counters and histograms the {@link ActionWorker}s record into, including
+ * actions outside of the measured window. Every interval is logged and
+ * optionally appended to a CSV file: the seconds since the clock was started,
+ * the operations and MB per second, the number of errors, the number of
+ * actions in flight and the median and 99th percentile latency in ms.
+ */
+public class IntervalReporter implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IntervalReporter.class);
+
+    /* DecimalFormat is not thread safe and every reporter formats on a thread of its own */
+    private static final ThreadLocal<DecimalFormat> FORMAT = new ThreadLocal<DecimalFormat>() {
+
+        @Override
+        protected DecimalFormat initialValue() {
+            return new DecimalFormat("###.##");
+        }
+    };
+
+    private static final String HEADER = "# elapsed_s,ops_per_sec,mb_per_sec,errors,in_flight,p50_ms,p99_ms\n";
+
+    private final LatencyRecorder recorder;
+
+    private final long interval;
+
+    /* null if the intervals are only logged */
+    private final Writer csv;
+
+    private final Thread reporter;
+
+    private long origin;
+
+    private long lastTick;
+
+    private long lastBytes;
+
+    private long lastErrors;
+
+    /**
+     * @param recorder the recorder the workers record into
+     * @param interval the length of an interval in ms
+     * @param csvPath the path of the CSV file or null
+     * @throws IOException if the CSV file can not be opened
+     */
+    public IntervalReporter(final LatencyRecorder recorder, final long interval, final String csvPath)
+            throws IOException {
+        super();
+        this.recorder = recorder;
+        this.interval = interval;
+        if (csvPath == null) {
+            this.csv = null;
+        } else {
+            this.csv = new OutputStreamWriter(new FileOutputStream(csvPath), StandardCharsets.US_ASCII);
+            this.csv.write(HEADER);
+        }
+        this.reporter = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                report();
+            }
+        }, "interval-reporter");
+        this.reporter.setDaemon(true);
+    }
+
+    /**
+     * Start reporting
+     * @param start the start of the clock as returned by
+     *        {@link System#nanoTime()}
+     */
+    public void start(final long start) {
+        this.origin = start;
+        this.lastTick = start;
+        this.reporter.start();
+    }
+
+    private void report() {
+        final long intervalNanos = TimeUnit.MILLISECONDS.toNanos(interval);
+        long next = origin + intervalNanos;
+        try {
+            while (true) {
+                /* sleep until the next tick, so that the intervals do not drift */
+                final long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                next += intervalNanos;
+                reportInterval(System.nanoTime());
+            }
+        } catch (final InterruptedException e) {
+            /* closed */
+        }
+    }
+
+    private void reportInterval(final long now) {
+        final Histogram hist = ActionStats.newHistogram();
+        long bytes = 0;
+        for (final Action action : Action.values()) {
+            final ActionStats live = recorder.getLiveStats(action);
+            hist.add(live.takeInterval());
+            bytes += live.getBytes();
+        }
+        final long errors = recorder.getErrors();
+        final int inFlight = recorder.getInFlight();
+        final double seconds = (now - lastTick) / 1e9d;
+        final double ops = hist.getTotalCount() / seconds;
+        final double mbs = (bytes - lastBytes) / (1024d * 1024d * seconds);
+        final long elapsed = TimeUnit.NANOSECONDS.toSeconds(now - origin);
+        final String p50 = LatencyRecorder.formatMicros(hist.getValueAtPercentile(50d));
+        final String p99 = LatencyRecorder.formatMicros(hist.getValueAtPercentile(99d));
+
+        final DecimalFormat format = FORMAT.get();
+        LOG.info("{}s: {} ops/sec, {} MB/sec, {} error(s), {} in flight, latency in ms p50={} p99={}",
+                new Object[] { elapsed, format.format(ops), format.format(mbs), errors - lastErrors, inFlight, p50,
+                        p99 });
+        if (csv != null) {
+            try {
+                csv.write(String.format(Locale.ROOT, "%d,%.2f,%.2f,%d,%d,%s,%s\n", elapsed, ops, mbs, errors -
+                        lastErrors, inFlight, p50, p99));
+                csv.flush();
+            } catch (final IOException e) {
+                LOG.warn("Unable to write the interval report", e);
+            }
+        }
+        lastTick = now;
+        lastBytes = bytes;
+        lastErrors = errors;
+    }
+
+    /**
+     * Stop reporting and close the CSV file
+     */
+    @Override
+    public void close() throws IOException {
+        if (reporter.isAlive()) {
+            reporter.interrupt();
+            try {
+                reporter.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (csv != null) {
+            csv.close();
+        }
+    }
+}
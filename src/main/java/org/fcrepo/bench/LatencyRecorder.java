@@ -0,0 +1,547 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+
+import org.HdrHistogram.Histogram;
+import org.fcrepo.bench.BenchTool.Action;
+import org.fcrepo.bench.RequestTimings.Phase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.icu.text.DecimalFormat;
+
+/**
+ * Records the results of all the {@link ActionWorker}s of a benchmark run per
+ * {@link Action} and reports latency percentiles and throughput at the end of
+ * the run
+ */
+public class LatencyRecorder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LatencyRecorder.class);
+
+    /* one per thread, the static report helpers are shared by the runs, the coordinator and the preparation */
+    private static final ThreadLocal<DecimalFormat> FORMAT = new ThreadLocal<DecimalFormat>() {
+
+        @Override
+        protected DecimalFormat initialValue() {
+            return new DecimalFormat("###.##");
+        }
+    };
+
+    private static final double[] PERCENTILES = new double[] { 50d, 90d, 99d, 99.9d };
+
+    /* the upper bounds of the size buckets the payload actions are broken down into */
+    private static final long[] SIZE_BUCKETS = new long[] { 100L * 1024, 1024L * 1024, 10L * 1024 * 1024,
+        100L * 1024 * 1024, 1024L * 1024 * 1024 };
+
+    /* the upper bounds of the child counts listings are broken down into, one per order of magnitude */
+    private static final long[] CHILD_BUCKETS = new long[] { 100L, 1000L, 10000L, 100000L, 1000000L };
+
+    /* the actions whose latency depends on the size of the payload */
+    private static final Set<Action> SIZED_ACTIONS = EnumSet.of(Action.INGEST, Action.READ, Action.UPDATE);
+
+    private final Map<Action, ActionStats> stats = new EnumMap<>(Action.class);
+
+    /* time spent in the request only, tracked separately for open loop runs */
+    private final Map<Action, ActionStats> serviceStats = new EnumMap<>(Action.class);
+
+    /* time to the first byte of the response for actions which measure it */
+    private final Map<Action, ActionStats> firstByteStats = new EnumMap<>(Action.class);
+
+    /* the actions broken down by the size of their payload */
+    private final Map<Action, ActionStats[]> sizeStats = new EnumMap<>(Action.class);
+
+    /* the listings broken down by the number of children, the latency and the time spent parsing */
+    private final ActionStats[] childStats = new ActionStats[CHILD_BUCKETS.length + 1];
+
+    private final ActionStats[] parseStats = new ActionStats[CHILD_BUCKETS.length + 1];
+
+    /*
+     * the batches of actions performed in a transaction from the assignment of the first action to the end of the
+     * commit or rollback, in transactions created on demand and in ones taken from a pool
+     */
+    private final ActionStats onDemandBatchStats = new ActionStats("BATCH in transactions created on demand");
+
+    private final ActionStats pooledBatchStats = new ActionStats("BATCH in pooled transactions");
+
+    /* the creations taken off the critical path of the batches by the pool */
+    private final ActionStats pooledCreateStats = new ActionStats(Action.CREATE_TX.name() + " in the background");
+
+    /* the phases of the HTTP exchange of each action */
+    private final Map<Action, ActionStats[]> phaseStats = new EnumMap<>(Action.class);
+
+    /* all the actions regardless of the window, read by the interval reporter and the metrics endpoint */
+    private final Map<Action, ActionStats> liveStats = new EnumMap<>(Action.class);
+
+    private final Map<Action, AtomicLong> errors = new EnumMap<>(Action.class);
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /* only actions started within this window are recorded */
+    private long windowStart = Long.MIN_VALUE;
+
+    private long windowEnd = Long.MAX_VALUE;
+
+    private boolean windowed;
+
+    public LatencyRecorder() {
+        /* all the stats are created up front so recording never has to modify the map */
+        for (final Action action : Action.values()) {
+            stats.put(action, new ActionStats(action.name()));
+            liveStats.put(action, new ActionStats(action.name() + " live"));
+            errors.put(action, new AtomicLong());
+            serviceStats.put(action, new ActionStats(action.name() + " service time"));
+            firstByteStats.put(action, new ActionStats(action.name() + " time to first byte"));
+            final ActionStats[] phases = new ActionStats[Phase.values().length];
+            for (final Phase phase : Phase.values()) {
+                phases[phase.ordinal()] = new ActionStats(action.name() + " " + phase.name().toLowerCase());
+            }
+            phaseStats.put(action, phases);
+            if (SIZED_ACTIONS.contains(action)) {
+                final ActionStats[] sizes = new ActionStats[SIZE_BUCKETS.length + 1];
+                for (int i = 0; i < sizes.length; i++) {
+                    sizes[i] = new ActionStats(action.name() + " " + describeSizeBucket(i));
+                }
+                sizeStats.put(action, sizes);
+            }
+        }
+        for (int i = 0; i < childStats.length; i++) {
+            childStats[i] = new ActionStats(Action.LIST.name() + " of " + describeChildBucket(i) + " children");
+            parseStats[i] = new ActionStats(childStats[i].getName() + " parsing");
+        }
+    }
+
+    /**
+     * Record the result of an action. For actions scheduled by an
+     * {@link ArrivalSchedule} the latency is measured from the intended start
+     * time, so that time spent queueing behind a stalled repository is not
+     * omitted, while the duration of the request itself is recorded as
+     * service time.
+     * @param action the action performed
+     * @param result the result of the action
+     * @param intendedStart the intended start time of the action or
+     *        {@link ActionWorker#UNSCHEDULED}
+     */
+    public void record(final Action action, final BenchToolResult result, final long intendedStart) {
+        record(action, result, intendedStart, null);
+    }
+
+    /**
+     * Record the result of an action together with the phases of its HTTP
+     * exchange
+     * @param action the action performed
+     * @param result the result of the action
+     * @param intendedStart the intended start time of the action or
+     *        {@link ActionWorker#UNSCHEDULED}
+     * @param timings the timings of the action's request or null
+     */
+    public void record(final Action action, final BenchToolResult result, final long intendedStart,
+            final RequestTimings timings) {
+        final long latency =
+                intendedStart == ActionWorker.UNSCHEDULED ? result.getDuration() : System.nanoTime() - intendedStart;
+        liveStats.get(action).record(latency, result.getSize());
+        if (windowed) {
+            final long start =
+                    intendedStart == ActionWorker.UNSCHEDULED ? System.nanoTime() - result.getDuration()
+                            : intendedStart;
+            if (start - windowStart < 0 || start - windowEnd >= 0) {
+                return;
+            }
+        }
+        stats.get(action).record(latency, result.getSize());
+        if (intendedStart != ActionWorker.UNSCHEDULED) {
+            serviceStats.get(action).record(result.getDuration(), 0);
+        }
+        if (result.getTimeToFirstByte() >= 0) {
+            firstByteStats.get(action).record(result.getTimeToFirstByte(), 0);
+        }
+        if (result.getSize() > 0 && SIZED_ACTIONS.contains(action)) {
+            sizeStats.get(action)[sizeBucket(result.getSize())].record(latency, result.getSize());
+        }
+        if (result.getChildren() >= 0) {
+            final int bucket = childBucket(result.getChildren());
+            childStats[bucket].record(latency, result.getSize());
+            parseStats[bucket].record(result.getParseTime(), 0);
+        }
+        if (timings != null) {
+            final ActionStats[] phases = phaseStats.get(action);
+            for (final Phase phase : Phase.values()) {
+                final long duration = timings.getPhase(phase);
+                if (duration >= 0) {
+                    phases[phase.ordinal()].record(duration, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record a batch whose transaction has been committed or rolled back
+     * @param tx the transaction of the batch
+     */
+    public void recordBatch(final TransactionState tx) {
+        final long start = tx.getFirstAssigned();
+        if (windowed && (start - windowStart < 0 || start - windowEnd >= 0)) {
+            return;
+        }
+        (tx.isPooled() ? pooledBatchStats : onDemandBatchStats).record(System.nanoTime() - start, 0);
+    }
+
+    /**
+     * Record the creation of a transaction opened by a
+     * {@link TransactionPool} ahead of its actions
+     * @param durationNanos the duration of the creation in nanoseconds
+     */
+    public void recordPooledCreation(final long durationNanos) {
+        pooledCreateStats.record(durationNanos, 0);
+    }
+
+    /**
+     * Count an action whose request is about to be sent
+     */
+    public void started() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Count an action which has finished, whether it succeeded or not
+     * @param action the action performed
+     * @param succeeded false if the action failed
+     */
+    public void finished(final Action action, final boolean succeeded) {
+        inFlight.decrementAndGet();
+        if (!succeeded) {
+            errors.get(action).incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the stats of an action including the results outside of the
+     *         window
+     */
+    public ActionStats getLiveStats(final Action action) {
+        return liveStats.get(action);
+    }
+
+    /**
+     * @return the number of times the action has failed so far
+     */
+    public long getErrors(final Action action) {
+        return errors.get(action).get();
+    }
+
+    /**
+     * @return the number of actions which have failed so far
+     */
+    public long getErrors() {
+        long sum = 0;
+        for (final AtomicLong count : errors.values()) {
+            sum += count.get();
+        }
+        return sum;
+    }
+
+    /**
+     * @return the number of actions currently performed
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Restrict the recording to actions started within the given window, e.g.
+     * to exclude warmup and cooldown from the results. Has to be called
+     * before the first action is submitted.
+     * @param start the start of the window as returned by
+     *        {@link System#nanoTime()}
+     * @param end the end of the window as returned by
+     *        {@link System#nanoTime()}
+     */
+    public void setWindow(final long start, final long end) {
+        this.windowStart = start;
+        this.windowEnd = end;
+        this.windowed = true;
+    }
+
+    public ActionStats getStats(final Action action) {
+        return stats.get(action);
+    }
+
+    /**
+     * Write the latencies and counters of all the stats in a compact form,
+     * which can be merged by {@link #merge(DataInput)}
+     * @param out the output to write to
+     */
+    public void writeTo(final DataOutput out) throws IOException {
+        /* most of the stats are empty and not sent */
+        final List<ActionStats> recorded = new ArrayList<>();
+        for (final ActionStats actionStats : getAllStats()) {
+            actionStats.collect();
+            if (actionStats.getCount() > 0) {
+                recorded.add(actionStats);
+            }
+        }
+        out.writeInt(recorded.size());
+        for (final ActionStats actionStats : recorded) {
+            final Histogram hist = actionStats.getTotal();
+            final ByteBuffer buffer = ByteBuffer.allocate(hist.getNeededByteBufferCapacity());
+            final int length = hist.encodeIntoCompressedByteBuffer(buffer);
+            out.writeUTF(actionStats.getName());
+            out.writeLong(actionStats.getCount());
+            out.writeLong(actionStats.getBytes());
+            out.writeInt(length);
+            out.write(buffer.array(), 0, length);
+        }
+    }
+
+    /**
+     * Add the latencies and counters written by {@link #writeTo(DataOutput)}
+     * to the stats of this recorder
+     * @param in the input to read from
+     */
+    public void merge(final DataInput in) throws IOException {
+        final Map<String, ActionStats> byName = new HashMap<>();
+        for (final ActionStats actionStats : getAllStats()) {
+            byName.put(actionStats.getName(), actionStats);
+        }
+        final int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            final String name = in.readUTF();
+            final long count = in.readLong();
+            final long bytes = in.readLong();
+            final byte[] encoded = new byte[in.readInt()];
+            in.readFully(encoded);
+            final ActionStats actionStats = byName.get(name);
+            if (actionStats == null) {
+                throw new IOException("Unknown stats " + name);
+            }
+            try {
+                actionStats.merge(Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(encoded), 0), count,
+                        bytes);
+            } catch (final DataFormatException e) {
+                throw new IOException("Unable to decode the latencies of " + name, e);
+            }
+        }
+    }
+
+    private List<ActionStats> getAllStats() {
+        final List<ActionStats> all = new ArrayList<>();
+        all.addAll(stats.values());
+        all.addAll(serviceStats.values());
+        all.addAll(firstByteStats.values());
+        for (final ActionStats[] phases : phaseStats.values()) {
+            for (final ActionStats phase : phases) {
+                all.add(phase);
+            }
+        }
+        for (final ActionStats[] sizes : sizeStats.values()) {
+            for (final ActionStats size : sizes) {
+                all.add(size);
+            }
+        }
+        for (int i = 0; i < childStats.length; i++) {
+            all.add(childStats[i]);
+            all.add(parseStats[i]);
+        }
+        all.add(onDemandBatchStats);
+        all.add(pooledBatchStats);
+        all.add(pooledCreateStats);
+        return all;
+    }
+
+    /**
+     * Log the percentiles and the throughput of all the actions recorded
+     * @param elapsedNanos the wall clock time the actions were performed in
+     */
+    public void logReport(final long elapsedNanos) {
+        for (final Action action : stats.keySet()) {
+            if (!logStats(stats.get(action), elapsedNanos)) {
+                continue;
+            }
+
+            logLatencies(serviceStats.get(action));
+            logLatencies(firstByteStats.get(action));
+            logPhases(action);
+            logSizes(action, elapsedNanos);
+            if (action == Action.LIST) {
+                logChildren(elapsedNanos);
+            }
+        }
+        logBatches(elapsedNanos);
+    }
+
+    /**
+     * Log the latency of the batches in pooled and in on-demand transactions
+     * and, if the pool ran empty at times, how the two compare
+     */
+    private void logBatches(final long elapsedNanos) {
+        final boolean onDemand = logStats(onDemandBatchStats, elapsedNanos);
+        if (!logStats(pooledBatchStats, elapsedNanos)) {
+            return;
+        }
+        /* created in the background, not part of the batches */
+        logLatencies(pooledCreateStats);
+        if (onDemand) {
+            /* both kinds were measured under the same load */
+            final Histogram pooled = pooledBatchStats.getTotal();
+            final Histogram created = onDemandBatchStats.getTotal();
+            LOG.info("BATCH: latency of on-demand minus pooled batches in ms p50={} p99={}", formatMicros(created
+                    .getValueAtPercentile(50d) - pooled.getValueAtPercentile(50d)), formatMicros(created
+                    .getValueAtPercentile(99d) - pooled.getValueAtPercentile(99d)));
+        }
+    }
+
+    /**
+     * Log the latency of the listings and the time spent parsing them per
+     * order of magnitude of the number of children, the curve of the cost of
+     * listing against the size of the container
+     */
+    private void logChildren(final long elapsedNanos) {
+        for (int i = 0; i < childStats.length; i++) {
+            if (logStats(childStats[i], elapsedNanos)) {
+                logLatencies(parseStats[i]);
+            }
+        }
+    }
+
+    /**
+     * Log the throughput and latencies of the action per size bucket if the
+     * payloads fall into more than one of them
+     */
+    private void logSizes(final Action action, final long elapsedNanos) {
+        final ActionStats[] sizes = sizeStats.get(action);
+        if (sizes == null) {
+            return;
+        }
+        int used = 0;
+        for (final ActionStats size : sizes) {
+            if (size.getCount() > 0) {
+                used++;
+            }
+        }
+        if (used < 2) {
+            return;
+        }
+        for (final ActionStats size : sizes) {
+            logStats(size, elapsedNanos);
+        }
+    }
+
+    private static int sizeBucket(final long size) {
+        for (int i = 0; i < SIZE_BUCKETS.length; i++) {
+            if (size <= SIZE_BUCKETS[i]) {
+                return i;
+            }
+        }
+        return SIZE_BUCKETS.length;
+    }
+
+    private static int childBucket(final long children) {
+        for (int i = 0; i < CHILD_BUCKETS.length; i++) {
+            if (children <= CHILD_BUCKETS[i]) {
+                return i;
+            }
+        }
+        return CHILD_BUCKETS.length;
+    }
+
+    private static String describeChildBucket(final int bucket) {
+        if (bucket == 0) {
+            return "up to " + CHILD_BUCKETS[0];
+        }
+        if (bucket == CHILD_BUCKETS.length) {
+            return "more than " + CHILD_BUCKETS[bucket - 1];
+        }
+        return CHILD_BUCKETS[bucket - 1] + 1 + " to " + CHILD_BUCKETS[bucket];
+    }
+
+    private static String describeSizeBucket(final int bucket) {
+        if (bucket == 0) {
+            return "up to " + FCRepoBenchRunner.convertSize(SIZE_BUCKETS[0]).replace(".0", "");
+        }
+        if (bucket == SIZE_BUCKETS.length) {
+            return "above " + FCRepoBenchRunner.convertSize(SIZE_BUCKETS[bucket - 1]).replace(".0", "");
+        }
+        return FCRepoBenchRunner.convertSize(SIZE_BUCKETS[bucket - 1]).replace(".0", "") + " to " +
+                FCRepoBenchRunner.convertSize(SIZE_BUCKETS[bucket]).replace(".0", "");
+    }
+
+    /**
+     * Log the throughput and the latency percentiles of the given stats
+     * @param actionStats the stats to log
+     * @param elapsedNanos the wall clock time the actions were performed in
+     * @return false if nothing has been recorded
+     */
+    static boolean logStats(final ActionStats actionStats, final long elapsedNanos) {
+        actionStats.collect();
+        final Histogram hist = actionStats.getTotal();
+        if (hist.getTotalCount() == 0) {
+            return false;
+        }
+        final double seconds = elapsedNanos / 1e9d;
+        LOG.info("{}: {} action(s), {} ops/sec, {} MB/sec", new Object[] { actionStats.getName(),
+                hist.getTotalCount(), FORMAT.get().format(actionStats.getCount() / seconds),
+                FORMAT.get().format(actionStats.getBytes() / (1024d * 1024d * seconds)) });
+        LOG.info("{}: latency in ms {} max={}", new Object[] { actionStats.getName(), formatPercentiles(hist),
+                formatMicros(hist.getMaxValue()) });
+        return true;
+    }
+
+    private void logPhases(final Action action) {
+        final StringBuilder sb = new StringBuilder();
+        for (final ActionStats phase : phaseStats.get(action)) {
+            phase.collect();
+            final Histogram hist = phase.getTotal();
+            if (hist.getTotalCount() == 0) {
+                continue;
+            }
+            sb.append(' ').append(phase.getName().substring(action.name().length() + 1)).append('=').append(
+                    formatMicros(hist.getValueAtPercentile(50d))).append('/').append(
+                    formatMicros(hist.getValueAtPercentile(99d)));
+        }
+        if (sb.length() > 0) {
+            LOG.info("{}: phases p50/p99 in ms{}", action.name(), sb);
+        }
+    }
+
+    private static void logLatencies(final ActionStats actionStats) {
+        actionStats.collect();
+        final Histogram hist = actionStats.getTotal();
+        if (hist.getTotalCount() > 0) {
+            LOG.info("{}: latency in ms {} max={}", new Object[] { actionStats.getName(), formatPercentiles(hist),
+                    formatMicros(hist.getMaxValue()) });
+        }
+    }
+
+    static String formatPercentiles(final Histogram hist) {
+        final StringBuilder sb = new StringBuilder();
+        for (final double p : PERCENTILES) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append('p').append(FORMAT.get().format(p)).append('=').append(
+                    formatMicros(hist.getValueAtPercentile(p)));
+        }
+        return sb.toString();
+    }
+
+    static String formatMicros(final long micros) {
+        return String.format("%.3f", micros / 1000d);
+    }
+}
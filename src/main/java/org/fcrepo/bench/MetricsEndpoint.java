@@ -0,0 +1,393 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.HdrHistogram.Histogram;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.fcrepo.bench.BenchTool.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Exposes the live metrics of the running phase in the Prometheus text format
+ * at <code>/metrics</code> and as JMX MXBeans below
+ * <code>org.fcrepo.bench</code>: the number of actions, bytes and errors and
+ * the latency histogram of each action, the number of actions in flight, the
+ * statistics of the connection pool of the blocking client and the time spent
+ * creating and committing transactions. The metrics are read from the
+ * wait-free counters and histogram recorders the workers record into, so
+ * scraping does not add contention to the requests. The counters start over
+ * with every measured phase.
+ */
+public class MetricsEndpoint implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsEndpoint.class);
+
+    private static final String DOMAIN = "org.fcrepo.bench";
+
+    /* the upper bounds of the latency buckets in seconds */
+    private static final double[] BUCKETS = new double[] { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5,
+        1, 2.5, 5, 10, 30, 60 };
+
+    private final HttpServer server;
+
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    private final PoolingHttpClientConnectionManager connManager;
+
+    /* the phase currently run, replaced by the runner of every measured phase */
+    private volatile Phase phase;
+
+    private volatile LatencyRecorder recorder;
+
+    /* null if the phase does not use transactions */
+    private volatile TransactionStateManager txManager;
+
+    /**
+     * Start serving the metrics and register the MXBeans
+     * @param port the port of the HTTP endpoint
+     * @param connManager the connection pool of the blocking client
+     */
+    public MetricsEndpoint(final int port, final PoolingHttpClientConnectionManager connManager)
+            throws IOException {
+        super();
+        this.connManager = connManager;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext("/metrics", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (final OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        this.server.start();
+        register();
+        LOG.info("Serving metrics at http://localhost:{}/metrics", port);
+    }
+
+    /**
+     * Expose the metrics of a measured phase
+     * @param phase the phase run
+     * @param recorder the recorder the workers of the phase record into
+     * @param txManager the transactions of the phase or null
+     */
+    public void setRun(final Phase phase, final LatencyRecorder recorder, final TransactionStateManager txManager) {
+        this.txManager = txManager;
+        this.recorder = recorder;
+        this.phase = phase;
+    }
+
+    private void register() {
+        final MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName runName = new ObjectName(DOMAIN + ":type=Run");
+            mbeans.registerMBean(new Run(), runName);
+            registered.add(runName);
+            for (final Action action : Action.values()) {
+                final ObjectName actionName = new ObjectName(DOMAIN + ":type=Action,name=" + action.name());
+                mbeans.registerMBean(new ActionMetrics(action), actionName);
+                registered.add(actionName);
+            }
+        } catch (final JMException e) {
+            LOG.warn("Unable to register the MXBeans of the metrics", e);
+        }
+    }
+
+    /**
+     * @return the metrics in the Prometheus text format
+     */
+    String scrape() {
+        final StringBuilder sb = new StringBuilder(4096);
+        final LatencyRecorder current = recorder;
+
+        header(sb, "fcrepo_bench_in_flight", "gauge", "The number of actions in flight");
+        sb.append("fcrepo_bench_in_flight ").append(current == null ? 0 : current.getInFlight()).append('\n');
+        final Phase run = phase;
+        if (run != null) {
+            header(sb, "fcrepo_bench_phase_info", "gauge", "The phase currently run");
+            sb.append("fcrepo_bench_phase_info{phase=\"").append(escape(run.toString())).append("\"} 1\n");
+        }
+
+        final PoolStats pool = connManager == null ? null : connManager.getTotalStats();
+        if (pool != null) {
+            header(sb, "fcrepo_bench_connections", "gauge", "The connections of the pool of the blocking client");
+            sb.append("fcrepo_bench_connections{state=\"leased\"} ").append(pool.getLeased()).append('\n');
+            sb.append("fcrepo_bench_connections{state=\"available\"} ").append(pool.getAvailable()).append('\n');
+            sb.append("fcrepo_bench_connections{state=\"pending\"} ").append(pool.getPending()).append('\n');
+            sb.append("fcrepo_bench_connections{state=\"max\"} ").append(pool.getMax()).append('\n');
+        }
+
+        final TransactionStateManager tx = txManager;
+        if (tx != null) {
+            header(sb, "fcrepo_bench_tx_create_seconds_total", "counter", "The time spent creating transactions");
+            sb.append("fcrepo_bench_tx_create_seconds_total ").append(format(tx.getCreateTime() / 1e3d)).append(
+                    '\n');
+            header(sb, "fcrepo_bench_tx_commit_seconds_total", "counter",
+                    "The time spent committing or rolling back transactions");
+            sb.append("fcrepo_bench_tx_commit_seconds_total ").append(format(tx.getCommitTime() / 1e3d)).append(
+                    '\n');
+        }
+
+        if (current == null) {
+            return sb.toString();
+        }
+        /* only the actions performed so far, most of them are never used */
+        final List<Action> performed = new ArrayList<>();
+        for (final Action action : Action.values()) {
+            if (current.getLiveStats(action).getCount() > 0 || current.getErrors(action) > 0) {
+                performed.add(action);
+            }
+        }
+        header(sb, "fcrepo_bench_actions_total", "counter", "The number of actions completed");
+        for (final Action action : performed) {
+            sample(sb, "fcrepo_bench_actions_total", action, current.getLiveStats(action).getCount());
+        }
+        header(sb, "fcrepo_bench_errors_total", "counter", "The number of actions failed");
+        for (final Action action : performed) {
+            sample(sb, "fcrepo_bench_errors_total", action, current.getErrors(action));
+        }
+        header(sb, "fcrepo_bench_bytes_total", "counter", "The number of payload bytes sent or received");
+        for (final Action action : performed) {
+            sample(sb, "fcrepo_bench_bytes_total", action, current.getLiveStats(action).getBytes());
+        }
+        header(sb, "fcrepo_bench_latency_seconds", "histogram", "The latency of the actions");
+        for (final Action action : performed) {
+            final ActionStats stats = current.getLiveStats(action);
+            stats.collect();
+            final Histogram hist = stats.getTotal();
+            final String label = action.name().toLowerCase();
+            for (final double bucket : BUCKETS) {
+                final long micros = (long) (bucket * 1e6d);
+                sb.append("fcrepo_bench_latency_seconds_bucket{action=\"").append(label).append("\",le=\"").append(
+                        bucket).append("\"} ").append(hist.getCountBetweenValues(0, micros)).append('\n');
+            }
+            sb.append("fcrepo_bench_latency_seconds_bucket{action=\"").append(label).append("\",le=\"+Inf\"} ")
+                    .append(hist.getTotalCount()).append('\n');
+            sb.append("fcrepo_bench_latency_seconds_sum{action=\"").append(label).append("\"} ").append(
+                    format(hist.getMean() * hist.getTotalCount() / 1e6d)).append('\n');
+            sb.append("fcrepo_bench_latency_seconds_count{action=\"").append(label).append("\"} ").append(
+                    hist.getTotalCount()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void header(final StringBuilder sb, final String name, final String type, final String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(final StringBuilder sb, final String name, final Action action, final long value) {
+        sb.append(name).append("{action=\"").append(action.name().toLowerCase()).append("\"} ").append(value)
+                .append('\n');
+    }
+
+    private static String format(final double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    private static String escape(final String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Stop serving the metrics and unregister the MXBeans
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        final MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        for (final ObjectName name : registered) {
+            try {
+                mbeans.unregisterMBean(name);
+            } catch (final JMException e) {
+                LOG.debug("Unable to unregister {}", name, e);
+            }
+        }
+    }
+
+    /**
+     * The metrics of the run as a whole
+     */
+    public interface RunMXBean {
+
+        String getPhase();
+
+        int getInFlight();
+
+        int getLeasedConnections();
+
+        int getAvailableConnections();
+
+        int getPendingConnections();
+
+        int getMaxConnections();
+
+        /**
+         * @return the time spent creating transactions in ms
+         */
+        long getTxCreateTime();
+
+        /**
+         * @return the time spent committing or rolling back transactions in
+         *         ms
+         */
+        long getTxCommitTime();
+    }
+
+    /**
+     * The metrics of a single action, the latencies are in ms
+     */
+    public interface ActionMXBean {
+
+        long getCount();
+
+        long getErrors();
+
+        long getBytes();
+
+        double getMeanLatency();
+
+        double getMedianLatency();
+
+        double getP99Latency();
+
+        double getMaxLatency();
+    }
+
+    private class Run implements RunMXBean {
+
+        @Override
+        public String getPhase() {
+            final Phase current = phase;
+            return current == null ? null : current.toString();
+        }
+
+        @Override
+        public int getInFlight() {
+            final LatencyRecorder current = recorder;
+            return current == null ? 0 : current.getInFlight();
+        }
+
+        @Override
+        public int getLeasedConnections() {
+            return connManager == null ? 0 : connManager.getTotalStats().getLeased();
+        }
+
+        @Override
+        public int getAvailableConnections() {
+            return connManager == null ? 0 : connManager.getTotalStats().getAvailable();
+        }
+
+        @Override
+        public int getPendingConnections() {
+            return connManager == null ? 0 : connManager.getTotalStats().getPending();
+        }
+
+        @Override
+        public int getMaxConnections() {
+            return connManager == null ? 0 : connManager.getTotalStats().getMax();
+        }
+
+        @Override
+        public long getTxCreateTime() {
+            final TransactionStateManager tx = txManager;
+            return tx == null ? 0 : tx.getCreateTime();
+        }
+
+        @Override
+        public long getTxCommitTime() {
+            final TransactionStateManager tx = txManager;
+            return tx == null ? 0 : tx.getCommitTime();
+        }
+    }
+
+    private class ActionMetrics implements ActionMXBean {
+
+        private final Action action;
+
+        private ActionMetrics(final Action action) {
+            this.action = action;
+        }
+
+        @Override
+        public long getCount() {
+            final LatencyRecorder current = recorder;
+            return current == null ? 0 : current.getLiveStats(action).getCount();
+        }
+
+        @Override
+        public long getErrors() {
+            final LatencyRecorder current = recorder;
+            return current == null ? 0 : current.getErrors(action);
+        }
+
+        @Override
+        public long getBytes() {
+            final LatencyRecorder current = recorder;
+            return current == null ? 0 : current.getLiveStats(action).getBytes();
+        }
+
+        @Override
+        public double getMeanLatency() {
+            final Histogram hist = latencies();
+            return hist == null ? 0 : hist.getMean() / 1e3d;
+        }
+
+        @Override
+        public double getMedianLatency() {
+            return getPercentile(50d);
+        }
+
+        @Override
+        public double getP99Latency() {
+            return getPercentile(99d);
+        }
+
+        @Override
+        public double getMaxLatency() {
+            final Histogram hist = latencies();
+            return hist == null ? 0 : hist.getMaxValue() / 1e3d;
+        }
+
+        private double getPercentile(final double percentile) {
+            final Histogram hist = latencies();
+            return hist == null ? 0 : hist.getValueAtPercentile(percentile) / 1e3d;
+        }
+
+        private Histogram latencies() {
+            final LatencyRecorder current = recorder;
+            if (current == null) {
+                return null;
+            }
+            final ActionStats stats = current.getLiveStats(action);
+            stats.collect();
+            return stats.getTotal();
+        }
+    }
+}
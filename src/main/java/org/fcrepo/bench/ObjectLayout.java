@@ -0,0 +1,197 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+/**
+ * Where the objects of a {@link Dataset} are placed below
+ * <code>/objects</code>. By default all the objects are siblings. In a tree
+ * every object is the container of the next level of objects: the first
+ * <code>fan-out</code> objects are at depth 1, their children at depth 2 and
+ * so on, filling the tree level by level up to its depth. With pairtree
+ * splitting the path of every object is preceded by containers named after
+ * pairs of the characters of its pid, which Fedora creates implicitly. The
+ * pairs are taken from the end of the pid, since the pids of a run only
+ * differ in their last characters. Layouts are given as
+ * <ul>
+ * <li><code>flat</code> all objects are siblings</li>
+ * <li><code>tree:4x100</code> a tree of depth 4 with a fan-out of 100</li>
+ * <li><code>pairtree:2</code> two levels of pairtree containers above every
+ * object</li>
+ * <li><code>tree:4x100+pairtree:2</code> both</li>
+ * </ul>
+ */
+public class ObjectLayout {
+
+    public static final ObjectLayout FLAT = new ObjectLayout("flat", 0, 0, 0);
+
+    /* the pids of a run are generated from 48 bit indexes */
+    private static final long MAX_OBJECTS = 1L << 48;
+
+    /* the 48 bits of the scrambled index are the last 12 hex digits of a pid */
+    private static final int MAX_PAIRS = 6;
+
+    private final String spec;
+
+    private final int depth;
+
+    private final int fanOut;
+
+    private final int pairs;
+
+    /* the index of the first object at each depth, up to the depth after the last */
+    private final long[] levelStart;
+
+    private ObjectLayout(final String spec, final int depth, final int fanOut, final int pairs) {
+        if (depth < 0 || pairs < 0 || (depth > 0 && fanOut < 1)) {
+            throw new IllegalArgumentException("Invalid layout " + spec);
+        }
+        if (pairs > MAX_PAIRS) {
+            throw new IllegalArgumentException("The pids of a run differ in their last " + MAX_PAIRS * 2 +
+                    " characters only, at most " + MAX_PAIRS + " pairtree levels are supported");
+        }
+        this.spec = spec;
+        this.depth = depth;
+        this.fanOut = fanOut;
+        this.pairs = pairs;
+        this.levelStart = new long[depth + 2];
+        long levelSize = 1;
+        for (int level = 1; level <= depth; level++) {
+            levelSize = Math.min(levelSize * fanOut, MAX_OBJECTS);
+            levelStart[level + 1] = Math.min(levelStart[level] + levelSize, MAX_OBJECTS);
+        }
+    }
+
+    /**
+     * @param value the layout
+     * @return the parsed layout
+     */
+    public static ObjectLayout parse(final String value) {
+        int depth = 0;
+        int fanOut = 0;
+        int pairs = 0;
+        for (final String part : value.toLowerCase().split("\\+")) {
+            if (part.equals("flat")) {
+                continue;
+            }
+            if (part.startsWith("tree:")) {
+                final String[] shape = part.substring(5).split("x");
+                if (shape.length != 2) {
+                    throw new IllegalArgumentException("Trees have to be given as tree:<depth>x<fan-out>");
+                }
+                depth = Integer.parseInt(shape[0]);
+                fanOut = Integer.parseInt(shape[1]);
+            } else if (part.startsWith("pairtree:")) {
+                pairs = Integer.parseInt(part.substring(9));
+            } else {
+                throw new IllegalArgumentException("Unknown layout " + part);
+            }
+        }
+        if (depth == 0 && pairs == 0) {
+            return FLAT;
+        }
+        return new ObjectLayout(value, depth, fanOut, pairs);
+    }
+
+    /**
+     * @return true if the objects are the containers of each other
+     */
+    public boolean isTree() {
+        return depth > 0;
+    }
+
+    /**
+     * @return true if all the objects are siblings below /objects
+     */
+    public boolean isFlat() {
+        return depth == 0 && pairs == 0;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the number of objects the tree holds
+     */
+    public long getCapacity() {
+        return isTree() ? levelStart[depth + 1] : MAX_OBJECTS;
+    }
+
+    /**
+     * @param level the depth, 1 being the children of /objects
+     * @return the index of the first object at the depth
+     */
+    public long getLevelStart(final int level) {
+        return levelStart[level];
+    }
+
+    /**
+     * @return the path of an object of the tree relative to /objects
+     */
+    public Paths paths(final PidGenerator pids) {
+        return new Paths() {
+
+            @Override
+            public String get(final long index) {
+                return path(pids, index);
+            }
+        };
+    }
+
+    /**
+     * @return the path of an object which is not part of the tree relative to
+     *         its container
+     */
+    public Paths nodes(final PidGenerator pids) {
+        return new Paths() {
+
+            @Override
+            public String get(final long index) {
+                return node(pids.get(index));
+            }
+        };
+    }
+
+    private String path(final PidGenerator pids, final long index) {
+        if (depth == 0 || index < fanOut) {
+            return node(pids.get(index));
+        }
+        /* the children of the object at index i start at fanOut * (i + 1) */
+        return path(pids, index / fanOut - 1) + "/" + node(pids.get(index));
+    }
+
+    /**
+     * @param pid the pid of an object
+     * @return the pid preceded by its pairtree containers
+     */
+    public String node(final String pid) {
+        if (pairs == 0) {
+            return pid;
+        }
+        final StringBuilder node = new StringBuilder(pid.length() + pairs * 3);
+        for (int i = 0; i < pairs; i++) {
+            final int end = pid.length() - 2 * i;
+            node.append(pid, end - 2, end).append('/');
+        }
+        return node.append(pid).toString();
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    /**
+     * The paths of a sequence of objects, generated from their index
+     */
+    public abstract static class Paths {
+
+        /**
+         * @param index the index of the object
+         * @return the path of the object relative to its container
+         */
+        public abstract String get(long index);
+    }
+}
@@ -0,0 +1,436 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.File;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.fcrepo.bench.BenchTool.Action;
+import org.fcrepo.bench.BenchTool.Engine;
+import org.fcrepo.bench.BenchTool.FedoraVersion;
+import org.fcrepo.bench.TransactionStateManager.TransactionMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The settings of a single phase of a {@link Scenario}: either the
+ * preparation of objects, a measured run of actions or the purge of all the
+ * objects created. Each phase has its own concurrency, payload size,
+ * transaction settings and duration log.
+ */
+public class Phase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Phase.class);
+
+    enum Type {
+        PREPARE, RUN, PURGE;
+    }
+
+    private Type type = Type.RUN;
+
+    private String name;
+
+    private Action action = Action.INGEST;
+
+    /* null if a single action is performed */
+    private ActionMix mix;
+
+    /* the number of actions performed or objects prepared */
+    private int numActions = 1;
+
+    private SizeDistribution size = SizeDistribution.fixed(1024);
+
+    private int numThreads = 1;
+
+    private String logPath = "durations.log";
+
+    private TransactionMode txMode = TransactionMode.NONE;
+
+    private int actionsPerTx;
+
+    private int parallelTx = 1;
+
+    /* the number of transactions opened ahead of the actions, 0 creates them on demand */
+    private int txPoolSize;
+
+    private boolean propertyAction;
+
+    private double rate;
+
+    private boolean poisson;
+
+    /* the length of the warmup, steady state and cooldown windows in ms */
+    private long duration;
+
+    private long warmup;
+
+    private long cooldown;
+
+    private Engine engine = Engine.THREADS;
+
+    /* the maximum number of objects per preparation transaction */
+    private int prepTxSize;
+
+    /* the length of the intervals reported during the run in ms, 0 disables the reports */
+    private long reportInterval = 10000;
+
+    /* null if the intervals are only logged */
+    private String reportLogPath;
+
+    /* whether the digests of the datastreams written and read are checked */
+    private boolean fixity;
+
+    /* the directory or manifest of the files to ingest, null if payloads are generated */
+    private String sourcePath;
+
+    /* where the objects of the dataset are placed, a setting of the whole scenario */
+    private ObjectLayout layout = ObjectLayout.FLAT;
+
+    /* the depth of the objects the actions are performed on, 0 for any depth */
+    private int targetDepth;
+
+    /* the number of children of the containers listed, one container per count */
+    private long[] children = new long[] { 1000L };
+
+    public Phase() {
+        super();
+    }
+
+    /**
+     * @param defaults the phase whose settings are copied
+     */
+    public Phase(final Phase defaults) {
+        super();
+        this.type = defaults.type;
+        this.name = defaults.name;
+        this.action = defaults.action;
+        this.mix = defaults.mix;
+        this.numActions = defaults.numActions;
+        this.size = defaults.size;
+        this.numThreads = defaults.numThreads;
+        this.logPath = defaults.logPath;
+        this.txMode = defaults.txMode;
+        this.actionsPerTx = defaults.actionsPerTx;
+        this.parallelTx = defaults.parallelTx;
+        this.txPoolSize = defaults.txPoolSize;
+        this.propertyAction = defaults.propertyAction;
+        this.rate = defaults.rate;
+        this.poisson = defaults.poisson;
+        this.duration = defaults.duration;
+        this.warmup = defaults.warmup;
+        this.cooldown = defaults.cooldown;
+        this.engine = defaults.engine;
+        this.prepTxSize = defaults.prepTxSize;
+        this.reportInterval = defaults.reportInterval;
+        this.reportLogPath = defaults.reportLogPath;
+        this.fixity = defaults.fixity;
+        this.sourcePath = defaults.sourcePath;
+        this.layout = defaults.layout;
+        this.targetDepth = defaults.targetDepth;
+        this.children = defaults.children;
+    }
+
+    /**
+     * Turn the action into its property counterpart if the phase acts on
+     * properties, ignoring the setting where it is not supported
+     * @param version the version of Fedora the phase is run against
+     */
+    void resolve(final FedoraVersion version) {
+        if (!propertyAction) {
+            return;
+        }
+        propertyAction = false;
+        if (mix != null) {
+            LOG.warn("Property actions have to be part of the mix itself, property action setting ignored");
+            return;
+        }
+        if (version == FedoraVersion.FCREPO3) {
+            LOG.warn("Actions on properties are not supported by this version of Fedora, property action setting ignored");
+            return;
+        }
+        switch (action) {
+        case INGEST:
+            action = Action.CREATE_PROPERTY;
+            break;
+        case READ:
+            action = Action.READ_PROPERTY;
+            break;
+        case UPDATE:
+            action = Action.UPDATE_PROPERTY;
+            break;
+        case DELETE:
+            action = Action.DELETE_PROPERTY;
+            break;
+        default:
+            LOG.error("Cannot perform action {} on a property.", action.toString());
+            break;
+        }
+    }
+
+    /**
+     * @return the actions performed by the phase
+     */
+    public Set<Action> getActions() {
+        return mix == null ? EnumSet.of(action) : mix.getActions();
+    }
+
+    /**
+     * @return the action performed or the weights of the mix
+     */
+    public String describeWorkload() {
+        return mix == null ? action.name() : "MIX(" + mix + ")";
+    }
+
+    @Override
+    public String toString() {
+        if (name != null) {
+            return name;
+        }
+        switch (type) {
+        case PREPARE:
+            return "prepare " + numActions + " objects";
+        case PURGE:
+            return "purge";
+        default:
+            return describeWorkload();
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(final Type type) {
+        this.type = type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    public void setAction(final Action action) {
+        this.action = action;
+    }
+
+    public ActionMix getMix() {
+        return mix;
+    }
+
+    public void setMix(final ActionMix mix) {
+        this.mix = mix;
+    }
+
+    public int getNumActions() {
+        return numActions;
+    }
+
+    public void setNumActions(final int numActions) {
+        this.numActions = numActions;
+    }
+
+    public SizeDistribution getSize() {
+        return size;
+    }
+
+    public void setSize(final SizeDistribution size) {
+        this.size = size;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void setNumThreads(final int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public String getLogPath() {
+        return logPath;
+    }
+
+    /**
+     * Insert a suffix before the extension of a path, so that phases or
+     * agents sharing a setting write files of their own
+     * @param path the path or null
+     * @param suffix the suffix to insert
+     * @return the path with the suffix or null if there is no path
+     */
+    static String insertSuffix(final String path, final String suffix) {
+        if (path == null) {
+            return null;
+        }
+        final int dot = path.lastIndexOf('.');
+        final int name = Math.max(path.lastIndexOf('/'), path.lastIndexOf(File.separatorChar)) + 1;
+        if (dot <= name) {
+            return path + suffix;
+        }
+        return path.substring(0, dot) + suffix + path.substring(dot);
+    }
+
+    public void setLogPath(final String logPath) {
+        this.logPath = logPath;
+    }
+
+    public TransactionMode getTxMode() {
+        return txMode;
+    }
+
+    public void setTxMode(final TransactionMode txMode) {
+        this.txMode = txMode;
+    }
+
+    public int getActionsPerTx() {
+        return actionsPerTx;
+    }
+
+    public void setActionsPerTx(final int actionsPerTx) {
+        this.actionsPerTx = actionsPerTx;
+    }
+
+    public int getParallelTx() {
+        return parallelTx;
+    }
+
+    public void setParallelTx(final int parallelTx) {
+        this.parallelTx = parallelTx;
+    }
+
+    public int getTxPoolSize() {
+        return txPoolSize;
+    }
+
+    public void setTxPoolSize(final int txPoolSize) {
+        this.txPoolSize = txPoolSize;
+    }
+
+    public boolean isPropertyAction() {
+        return propertyAction;
+    }
+
+    public void setPropertyAction(final boolean propertyAction) {
+        this.propertyAction = propertyAction;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public void setRate(final double rate) {
+        this.rate = rate;
+    }
+
+    public boolean isPoisson() {
+        return poisson;
+    }
+
+    public void setPoisson(final boolean poisson) {
+        this.poisson = poisson;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public void setDuration(final long duration) {
+        this.duration = duration;
+    }
+
+    public long getWarmup() {
+        return warmup;
+    }
+
+    public void setWarmup(final long warmup) {
+        this.warmup = warmup;
+    }
+
+    public long getCooldown() {
+        return cooldown;
+    }
+
+    public void setCooldown(final long cooldown) {
+        this.cooldown = cooldown;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(final Engine engine) {
+        this.engine = engine;
+    }
+
+    public int getPrepTxSize() {
+        return prepTxSize;
+    }
+
+    public void setPrepTxSize(final int prepTxSize) {
+        this.prepTxSize = prepTxSize;
+    }
+
+    public long getReportInterval() {
+        return reportInterval;
+    }
+
+    public void setReportInterval(final long reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+
+    public String getReportLogPath() {
+        return reportLogPath;
+    }
+
+    public void setReportLogPath(final String reportLogPath) {
+        this.reportLogPath = reportLogPath;
+    }
+
+    public boolean isFixity() {
+        return fixity;
+    }
+
+    public void setFixity(final boolean fixity) {
+        this.fixity = fixity;
+    }
+
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    public void setSourcePath(final String sourcePath) {
+        this.sourcePath = sourcePath;
+    }
+
+    public ObjectLayout getLayout() {
+        return layout;
+    }
+
+    public void setLayout(final ObjectLayout layout) {
+        this.layout = layout;
+    }
+
+    public int getTargetDepth() {
+        return targetDepth;
+    }
+
+    public void setTargetDepth(final int targetDepth) {
+        this.targetDepth = targetDepth;
+    }
+
+    public long[] getChildren() {
+        return children;
+    }
+
+    public void setChildren(final long[] children) {
+        this.children = children;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.util.UUID;
+
+/**
+ * Generates the pids of a benchmark run from their index, so that the pids of
+ * the prepared objects do not have to be kept in memory. The pids are random
+ * UUIDs which share everything but their node field, which holds the index
+ * scrambled by a bijection of the 48 bit numbers. Consecutive objects thus get
+ * pids as far apart as minted ones, instead of sharing all but their last
+ * digits and piling up in the same pairtree containers, while every index
+ * still maps to a pid of its own without keeping any state.
+ */
+public class PidGenerator {
+
+    /* the node field of a UUID are its lowest 48 bits */
+    private static final long NODE_MASK = 0xFFFFFFFFFFFFL;
+
+    /* odd, so that multiplying by them modulo 2^48 is invertible */
+    private static final long MIX1 = 0x9E3779B97F4BL;
+
+    private static final long MIX2 = 0xC2B2AE3D27D5L;
+
+    private final long mostSigBits;
+
+    private final long leastSigBits;
+
+    /* added to every index, so that several generators can share a base */
+    private final long offset;
+
+    public PidGenerator() {
+        this(UUID.randomUUID());
+    }
+
+    /**
+     * @param base the UUID whose node field is replaced by the index
+     */
+    public PidGenerator(final UUID base) {
+        this(base, 0);
+    }
+
+    /**
+     * @param base the UUID whose node field is replaced by the index
+     * @param offset the first index of the range of pids generated, e.g. to
+     *        give the agents of a distributed run disjoint ranges
+     */
+    public PidGenerator(final UUID base, final long offset) {
+        super();
+        this.mostSigBits = base.getMostSignificantBits();
+        this.leastSigBits = base.getLeastSignificantBits() & ~NODE_MASK;
+        this.offset = offset;
+    }
+
+    /**
+     * @param index the index of the object, 0 <= offset + index < 2^48
+     * @return the pid of the object
+     */
+    public String get(final long index) {
+        final long node = offset + index;
+        if (index < 0 || (node & ~NODE_MASK) != 0) {
+            throw new IllegalArgumentException("Index " + index + " is out of range");
+        }
+        return new UUID(mostSigBits, leastSigBits | scramble(node)).toString();
+    }
+
+    /* multiply, xor-shift, multiply: the low digits depend on all the bits of the index */
+    private static long scramble(final long node) {
+        long mixed = (node * MIX1) & NODE_MASK;
+        mixed ^= mixed >>> 24;
+        return (mixed * MIX2) & NODE_MASK;
+    }
+}
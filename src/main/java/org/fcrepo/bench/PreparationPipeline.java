@@ -0,0 +1,207 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.fcrepo.bench.BenchTool.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prepares the objects of a benchmark run before the clock is started and
+ * purges them afterwards. The objects are handled by a bounded number of
+ * threads, each of which creates an object together with everything the
+ * action requires before moving on to the next one. With preparation
+ * transactions the objects are split into transactions of a maximum size,
+ * which are committed one after the other.
+ */
+public class PreparationPipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PreparationPipeline.class);
+
+    private final FedoraRestClient fedora;
+
+    /* null if preparation is not performed in transactions */
+    private final TransactionStateManager txManager;
+
+    private final int numThreads;
+
+    private final int objectsPerTx;
+
+    /**
+     * @param fedora the client used for preparation, created with the given
+     *        transaction manager
+     * @param txManager the manager of the preparation transactions or null
+     * @param numThreads the number of objects prepared concurrently
+     * @param objectsPerTx the maximum number of objects per preparation
+     *        transaction. Values <= 0 use a single transaction
+     */
+    public PreparationPipeline(final FedoraRestClient fedora, final TransactionStateManager txManager,
+            final int numThreads, final int objectsPerTx) {
+        super();
+        this.fedora = fedora;
+        this.txManager = txManager;
+        this.numThreads = Math.max(numThreads, 1);
+        this.objectsPerTx = objectsPerTx;
+    }
+
+    /**
+     * Create the objects and everything the actions require to exist
+     * @param pids the paths of the objects to create
+     * @param from the index of the first object to create
+     * @param count the number of objects to create
+     * @param actions the actions which will be performed on the objects
+     * @param sizes the sizes of the datastreams to create if an action
+     *        requires them
+     */
+    public void prepare(final ObjectLayout.Paths pids, final long from, final long count, final Set<Action> actions,
+            final SizeDistribution sizes) throws IOException {
+        final boolean datastreams = FedoraRestClient.requiresDatastream(actions);
+        run("preparation", "prepare", pids, from, count, new Step() {
+
+            @Override
+            public long perform(final String pid, final TransactionState tx) throws IOException {
+                final long size = sizes.next();
+                fedora.prepareObject(pid, actions, size, tx);
+                return datastreams ? size : 0;
+            }
+        });
+    }
+
+    /**
+     * Delete the objects together with their datastreams and the objects
+     * they contain
+     * @param pids the paths of the objects to delete
+     * @param from the index of the first object to delete
+     * @param count the number of objects to delete
+     */
+    public void purge(final ObjectLayout.Paths pids, final long from, final long count) throws IOException {
+        run("purge", "purge", pids, from, count, new Step() {
+
+            @Override
+            public long perform(final String pid, final TransactionState tx) throws IOException {
+                fedora.deleteObject(pid, tx);
+                return 0;
+            }
+        });
+    }
+
+    private void run(final String name, final String verb, final ObjectLayout.Paths pids, final long from,
+            final long count, final Step step) throws IOException {
+        final ActionStats stats = new ActionStats(name);
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        final CompletionService<Boolean> completion = new ExecutorCompletionService<>(executor);
+        final long chunkSize = txManager == null || objectsPerTx <= 0 ? count : objectsPerTx;
+
+        LOG.info("{} of {} objects using {} thread(s)", new Object[] { name, count, numThreads });
+        final long start = System.nanoTime();
+        long failed = 0;
+        try {
+            for (long chunk = from; chunk < from + count; chunk += chunkSize) {
+                final TransactionState tx = startTx();
+                failed += runChunk(verb, pids, chunk, Math.min(chunk + chunkSize, from + count), step, stats, tx,
+                        completion);
+                commitTx(tx);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        LatencyRecorder.logStats(stats, System.nanoTime() - start);
+        if (failed > 0) {
+            LOG.error("Unable to {} {} of {} objects", new Object[] { verb, failed, count });
+        }
+    }
+
+    /**
+     * Handle the objects with an index from the given range. The pids are
+     * generated as the tasks are submitted, so only the tasks in flight are
+     * kept in memory.
+     * @return the number of objects which could not be handled
+     */
+    private int runChunk(final String verb, final ObjectLayout.Paths pids, final long from, final long to,
+            final Step step, final ActionStats stats, final TransactionState tx,
+            final CompletionService<Boolean> completion) throws IOException {
+        final int maxInFlight = numThreads * 2;
+        int inFlight = 0;
+        int failed = 0;
+        for (long index = from; index < to; index++) {
+            final String pid = pids.get(index);
+            while (inFlight >= maxInFlight) {
+                failed += fetchResult(completion);
+                inFlight--;
+            }
+            completion.submit(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() {
+                    final long start = System.nanoTime();
+                    try {
+                        final long bytes = step.perform(pid, tx);
+                        stats.record(System.nanoTime() - start, bytes);
+                        return true;
+                    } catch (final IOException e) {
+                        LOG.error("Unable to " + verb + " object " + pid + " in Fedora", e);
+                        return false;
+                    }
+                }
+            });
+            inFlight++;
+        }
+        while (inFlight > 0) {
+            failed += fetchResult(completion);
+            inFlight--;
+        }
+        return failed;
+    }
+
+    private static int fetchResult(final CompletionService<Boolean> completion) throws IOException {
+        try {
+            return completion.take().get() ? 0 : 1;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the pipeline", e);
+        } catch (final ExecutionException e) {
+            throw new IOException("Error in the pipeline", e.getCause());
+        }
+    }
+
+    private TransactionState startTx() throws IOException {
+        if (txManager == null) {
+            return null;
+        }
+        final TransactionState tx = txManager.assign().getTransaction();
+        fedora.createTransaction(tx);
+        return tx;
+    }
+
+    private void commitTx(final TransactionState tx) throws IOException {
+        if (txManager == null) {
+            return;
+        }
+        tx.setReadyForCommit(true);
+        fedora.commitTransaction(tx);
+        txManager.drain();
+    }
+
+    /**
+     * The work done for a single object
+     */
+    private interface Step {
+
+        /**
+         * @return the number of bytes sent to Fedora
+         */
+        long perform(String pid, TransactionState tx) throws IOException;
+    }
+}
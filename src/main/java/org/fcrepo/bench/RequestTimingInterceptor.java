@@ -0,0 +1,31 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Marks the start of every request executed by the HTTP client in the
+ * {@link RequestTimings} of the executing thread. Request interceptors are
+ * run before a connection is leased from the pool, so this has to be the
+ * first interceptor in order to include the lease in the timings.
+ */
+public class RequestTimingInterceptor implements HttpRequestInterceptor {
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.HttpRequestInterceptor#process(org.apache.http.HttpRequest,
+     * org.apache.http.protocol.HttpContext)
+     */
+    @Override
+    public void process(final HttpRequest request, final HttpContext context) throws HttpException, IOException {
+        RequestTimings.current().requestStarted();
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+/**
+ * Timestamps of the request currently executed by a thread. The REST clients
+ * mark the request's milestones, so that the worker can break the duration
+ * of an action down after the request has completed. The phases of the HTTP
+ * exchange are marked by the {@link RequestTimingInterceptor} and the sockets
+ * created by the {@link TimingSocketFactory}.
+ */
+public class RequestTimings {
+
+    /**
+     * The phases of an HTTP exchange
+     */
+    public static enum Phase {
+        /* waiting for a connection from the pool */
+        LEASE,
+        /* establishing a new connection */
+        CONNECT,
+        /* writing the request head and body */
+        SEND,
+        /* waiting for the first byte of the response */
+        SERVER,
+        /* reading the response */
+        RECEIVE
+    }
+
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<RequestTimings>() {
+
+        @Override
+        protected RequestTimings initialValue() {
+            return new RequestTimings();
+        }
+    };
+
+    private long start = -1;
+
+    private long firstByte = -1;
+
+    private long lastByte = -1;
+
+    private long bytes;
+
+    private int status = -1;
+
+    private long requestStart = -1;
+
+    private long connectStart = -1;
+
+    private long connectEnd = -1;
+
+    private long firstWrite = -1;
+
+    private long lastWrite = -1;
+
+    private long firstRead = -1;
+
+    private long lastRead = -1;
+
+    /**
+     * @return the timings of the request currently executed by the calling
+     *         thread
+     */
+    public static RequestTimings current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Reset the timings and mark the start of a new request
+     * @return the start time as returned by {@link System#nanoTime()}
+     */
+    public long begin() {
+        requestStart = -1;
+        start = System.nanoTime();
+        firstByte = -1;
+        lastByte = -1;
+        bytes = 0;
+        status = -1;
+        return start;
+    }
+
+    /**
+     * Mark the start of the execution of an HTTP request by the client and
+     * reset the phases of any previous request
+     */
+    public void requestStarted() {
+        requestStart = System.nanoTime();
+        connectStart = -1;
+        connectEnd = -1;
+        firstWrite = -1;
+        lastWrite = -1;
+        firstRead = -1;
+        lastRead = -1;
+    }
+
+    public void connectStarted() {
+        connectStart = System.nanoTime();
+    }
+
+    public void connectFinished() {
+        connectEnd = System.nanoTime();
+    }
+
+    public void writeStarted() {
+        if (firstWrite < 0) {
+            firstWrite = System.nanoTime();
+        }
+    }
+
+    public void writeFinished() {
+        lastWrite = System.nanoTime();
+    }
+
+    public void bytesRead() {
+        /* reads before the request has been written, e.g. stale connection checks, are ignored */
+        if (firstWrite < 0) {
+            return;
+        }
+        lastRead = System.nanoTime();
+        if (firstRead < 0) {
+            firstRead = lastRead;
+        }
+    }
+
+    /**
+     * @param phase the phase of the HTTP exchange
+     * @return the duration of the phase in nanoseconds or -1 if the phase has
+     *         not been observed
+     */
+    public long getPhase(final Phase phase) {
+        switch (phase) {
+        case LEASE:
+            final long leased = connectStart >= 0 ? connectStart : firstWrite;
+            return requestStart < 0 || leased < 0 ? -1 : leased - requestStart;
+        case CONNECT:
+            return connectStart < 0 || connectEnd < 0 ? -1 : connectEnd - connectStart;
+        case SEND:
+            return firstWrite < 0 || lastWrite < 0 ? -1 : lastWrite - firstWrite;
+        case SERVER:
+            /* the server might respond before the request has been written completely */
+            return lastWrite < 0 || firstRead < 0 ? -1 : Math.max(firstRead - lastWrite, 0);
+        case RECEIVE:
+            return firstRead < 0 ? -1 : lastRead - firstRead;
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Mark the arrival of the response headers
+     */
+    public void firstByte() {
+        firstByte = System.nanoTime();
+    }
+
+    /**
+     * @param status the HTTP status of the response
+     */
+    public void setStatus(final int status) {
+        this.status = status;
+    }
+
+    /**
+     * Mark the end of the response body
+     * @param bytes the number of bytes of the body
+     * @return the time to the last byte in nanoseconds
+     */
+    public long lastByte(final long bytes) {
+        this.lastByte = System.nanoTime();
+        this.bytes = bytes;
+        return lastByte - start;
+    }
+
+    /**
+     * @return the time to the first byte of the response in nanoseconds or
+     *         -1 if it has not been marked
+     */
+    public long getTimeToFirstByte() {
+        return firstByte < 0 ? -1 : firstByte - start;
+    }
+
+    /**
+     * @return the time to the last byte of the response in nanoseconds or -1
+     *         if it has not been marked
+     */
+    public long getTimeToLastByte() {
+        return lastByte < 0 ? -1 : lastByte - start;
+    }
+
+    /**
+     * @return the start of the request as returned by
+     *         {@link System#nanoTime()}
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the HTTP status of the response or -1 if no response has been
+     *         received
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the number of bytes of the response body
+     */
+    public long getBytes() {
+        return bytes;
+    }
+}
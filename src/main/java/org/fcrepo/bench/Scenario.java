@@ -0,0 +1,476 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.fcrepo.bench.BenchTool.Action;
+import org.fcrepo.bench.BenchTool.Engine;
+import org.fcrepo.bench.BenchTool.FedoraVersion;
+import org.fcrepo.bench.TransactionStateManager.TransactionMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.error.YAMLException;
+
+/**
+ * A sequence of {@link Phase}s run in one JVM against a single
+ * {@link Dataset}, e.g. prepare 10000 objects, ingest at a fixed rate for 10
+ * minutes, run a mix of reads and updates with 64 threads and purge. The
+ * objects are prepared and purged by the respective phases only, so the
+ * measured phases do not pay for preparation between them. Scenarios are read
+ * from JSON or YAML files:
+ *
+ * <pre>
+ * size: 1m
+ * phases:
+ *   - type: prepare
+ *     num-objects: 10000
+ *     num-threads: 32
+ *   - action: ingest
+ *     rate: 50
+ *     duration: 10m
+ *   - mix: read=80,update=20
+ *     num-threads: 64
+ *     duration: 10m
+ *   - type: purge
+ * </pre>
+ *
+ * The settings at the top level are the defaults of all the phases and use
+ * the long names of the command line options.
+ */
+public class Scenario {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Scenario.class);
+
+    private final List<Phase> phases;
+
+    /* whether the prepared objects are shared by several measured phases */
+    private final boolean shared;
+
+    /**
+     * @param phases the phases to run one after the other
+     * @param shared whether the prepared objects are shared by several
+     *        measured phases, in which case consuming actions are always
+     *        performed on fresh objects
+     */
+    public Scenario(final List<Phase> phases, final boolean shared) {
+        super();
+        this.phases = phases;
+        this.shared = shared;
+    }
+
+    /**
+     * @param run the settings of the run
+     * @param prepThreads the number of threads preparing and purging the
+     *        objects
+     * @param prepTxSize the maximum number of objects per preparation
+     *        transaction
+     * @return the scenario of a single run: prepare as many objects as there
+     *         are actions, run the actions and purge the objects
+     */
+    public static Scenario singleRun(final Phase run, final int prepThreads, final int prepTxSize) {
+        final Phase prepare = new Phase(run);
+        prepare.setType(Phase.Type.PREPARE);
+        prepare.setNumThreads(prepThreads);
+        prepare.setPrepTxSize(prepTxSize);
+        final Phase purge = new Phase(prepare);
+        purge.setType(Phase.Type.PURGE);
+        final List<Phase> phases = new ArrayList<>(3);
+        Collections.addAll(phases, prepare, run, purge);
+        return new Scenario(phases, false);
+    }
+
+    /**
+     * Read a scenario in JSON or YAML
+     * @param reader the reader of the scenario
+     * @param path where the scenario has been read from, used in error
+     *        messages
+     * @param defaults the settings of phases which are not given in the
+     *        scenario
+     * @return the scenario
+     * @throws IOException if the scenario can not be read or parsed
+     */
+    public static Scenario parse(final Reader reader, final String path, final Phase defaults) throws IOException {
+        final Object root;
+        try {
+            /* JSON is a subset of YAML */
+            root = new Yaml(new SafeConstructor(new LoaderOptions())).load(reader);
+        } catch (final YAMLException e) {
+            throw new IOException("Unable to parse scenario " + path, e);
+        }
+        if (!(root instanceof Map)) {
+            throw new IOException("The scenario " + path + " has to be a map of settings and phases");
+        }
+        final Map<?, ?> settings = (Map<?, ?>) root;
+        if (!(settings.get("phases") instanceof List) || ((List<?>) settings.get("phases")).isEmpty()) {
+            throw new IOException("The scenario " + path + " has to contain a list of phases");
+        }
+
+        final Phase scenarioDefaults = new Phase(defaults);
+        for (final Map.Entry<?, ?> setting : settings.entrySet()) {
+            if (!"phases".equals(setting.getKey())) {
+                apply(scenarioDefaults, String.valueOf(setting.getKey()), setting.getValue());
+            }
+        }
+
+        final List<Phase> phases = new ArrayList<>();
+        int numRuns = 0;
+        for (final Object entry : (List<?>) settings.get("phases")) {
+            if (!(entry instanceof Map)) {
+                throw new IOException("The phases of the scenario " + path + " have to be maps of settings");
+            }
+            final Phase phase = new Phase(scenarioDefaults);
+            for (final Map.Entry<?, ?> setting : ((Map<?, ?>) entry).entrySet()) {
+                apply(phase, String.valueOf(setting.getKey()), setting.getValue());
+            }
+            if (phase.getType() == Phase.Type.RUN) {
+                numRuns++;
+            }
+            phases.add(phase);
+        }
+        separateOutputs(phases);
+        return new Scenario(phases, numRuns > 1);
+    }
+
+    /**
+     * Give the measured phases which resolve to the same duration log or
+     * interval report, e.g. the default one, files of their own named after
+     * the number of the phase, since every phase truncates its files
+     */
+    private static void separateOutputs(final List<Phase> phases) {
+        final Map<String, Integer> logs = new HashMap<>();
+        final Map<String, Integer> reports = new HashMap<>();
+        for (final Phase phase : phases) {
+            if (phase.getType() == Phase.Type.RUN) {
+                count(logs, phase.getLogPath());
+                count(reports, phase.getReportLogPath());
+            }
+        }
+        for (int i = 0; i < phases.size(); i++) {
+            final Phase phase = phases.get(i);
+            if (phase.getType() != Phase.Type.RUN) {
+                continue;
+            }
+            final String suffix = "-phase" + (i + 1);
+            if (logs.get(phase.getLogPath()) > 1) {
+                phase.setLogPath(Phase.insertSuffix(phase.getLogPath(), suffix));
+                LOG.info("Phase {} writes its durations to {}", i + 1, phase.getLogPath());
+            }
+            if (phase.getReportLogPath() != null && reports.get(phase.getReportLogPath()) > 1) {
+                phase.setReportLogPath(Phase.insertSuffix(phase.getReportLogPath(), suffix));
+                LOG.info("Phase {} writes its interval report to {}", i + 1, phase.getReportLogPath());
+            }
+        }
+    }
+
+    private static void count(final Map<String, Integer> paths, final String path) {
+        if (path != null) {
+            final Integer count = paths.get(path);
+            paths.put(path, count == null ? 1 : count + 1);
+        }
+    }
+
+    private static void apply(final Phase phase, final String key, final Object value) throws IOException {
+        final String text = String.valueOf(value);
+        try {
+            switch (key) {
+            case "type":
+                phase.setType(Phase.Type.valueOf(text.toUpperCase()));
+                break;
+            case "name":
+                phase.setName(text);
+                break;
+            case "action":
+                phase.setAction(Action.valueOf(text.toUpperCase()));
+                phase.setMix(null);
+                break;
+            case "mix":
+                phase.setMix(parseMix(value));
+                break;
+            case "num-actions":
+            case "num-objects":
+                phase.setNumActions(Integer.parseInt(text));
+                break;
+            case "size":
+                phase.setSize(SizeDistribution.parse(text));
+                break;
+            case "num-threads":
+                phase.setNumThreads(Integer.parseInt(text));
+                break;
+            case "log":
+                phase.setLogPath(text);
+                break;
+            case "tx-mode":
+                phase.setTxMode(TransactionMode.valueOf(text.toUpperCase()));
+                break;
+            case "tx-num-actions":
+                phase.setActionsPerTx(Integer.parseInt(text));
+                break;
+            case "tx-parallel":
+                phase.setParallelTx(Integer.parseInt(text));
+                break;
+            case "tx-pool":
+                phase.setTxPoolSize(Integer.parseInt(text));
+                break;
+            case "property":
+                phase.setPropertyAction(Boolean.parseBoolean(text));
+                break;
+            case "rate":
+                phase.setRate(Double.parseDouble(text));
+                break;
+            case "poisson":
+                phase.setPoisson(Boolean.parseBoolean(text));
+                break;
+            case "duration":
+                phase.setDuration(BenchTool.getDurationFromArgument(text));
+                break;
+            case "warmup":
+                phase.setWarmup(BenchTool.getDurationFromArgument(text));
+                break;
+            case "cooldown":
+                phase.setCooldown(BenchTool.getDurationFromArgument(text));
+                break;
+            case "engine":
+                phase.setEngine(Engine.valueOf(text.toUpperCase().replace('-', '_')));
+                break;
+            case "prep-tx-size":
+                phase.setPrepTxSize(Integer.parseInt(text));
+                break;
+            case "report-interval":
+                phase.setReportInterval(BenchTool.getDurationFromArgument(text));
+                break;
+            case "report-log":
+                phase.setReportLogPath(text);
+                break;
+            case "fixity":
+                phase.setFixity(Boolean.parseBoolean(text));
+                break;
+            case "source":
+                phase.setSourcePath(text);
+                break;
+            case "layout":
+                phase.setLayout(ObjectLayout.parse(text));
+                break;
+            case "target-depth":
+                phase.setTargetDepth(Integer.parseInt(text));
+                break;
+            case "children":
+                phase.setChildren(BenchTool.getCountsFromArgument(text));
+                break;
+            default:
+                throw new IOException("Unknown setting " + key + " in scenario");
+            }
+        } catch (final IllegalArgumentException e) {
+            throw new IOException("Invalid value " + text + " of setting " + key + " in scenario", e);
+        }
+    }
+
+    /* mixes are given as in the command line or as a map of actions to weights */
+    private static ActionMix parseMix(final Object value) {
+        if (!(value instanceof Map)) {
+            return ActionMix.parse(String.valueOf(value));
+        }
+        final Map<Action, Double> weights = new EnumMap<>(Action.class);
+        for (final Map.Entry<?, ?> weight : ((Map<?, ?>) value).entrySet()) {
+            weights.put(Action.valueOf(String.valueOf(weight.getKey()).toUpperCase()), Double.parseDouble(String
+                    .valueOf(weight.getValue())));
+        }
+        return new ActionMix(weights);
+    }
+
+    /**
+     * Run all the phases one after the other
+     * @param preparationAsTx whether to prepare and purge the objects in
+     *        transactions if the version of Fedora supports them
+     * @param purge whether to run the purge phases
+     * @param agent the connection to the coordinator if the phases are run
+     *        as part of a distributed run or null
+     */
+    public void run(final FedoraVersion version, final URI fedoraUri, final boolean preparationAsTx,
+            final boolean purge, final Agent agent) throws IOException {
+        final long start = System.nanoTime();
+        resolve(version);
+        final Set<Action> preparedActions = getPreparedActions();
+        final ObjectLayout layout = getLayout();
+        final Dataset dataset;
+        if (agent == null) {
+            dataset = new Dataset(version, fedoraUri, preparationAsTx, shared, layout);
+        } else {
+            /* every agent prepares and creates the objects of its own range of pids */
+            dataset = new Dataset(version, fedoraUri, preparationAsTx, shared, layout, agent.getPreparedPids(),
+                    agent.getCreatedPids());
+        }
+        if (isFixity()) {
+            /* the prepared datastreams have to be known for their reads to be verified */
+            dataset.enableFixity();
+        }
+        if (preparedActions.contains(Action.LIST)) {
+            dataset.setChildren(getChildren());
+        }
+
+        boolean rolledBack = false;
+        int num = 0;
+        for (final Phase phase : phases) {
+            num++;
+            if (agent != null) {
+                agent.awaitStart(num);
+            }
+            LOG.info("Phase {} of {}: {}", new Object[] { num, phases.size(), phase });
+            switch (phase.getType()) {
+            case PREPARE:
+                /*
+                 * first create the required top level objects so their
+                 * creation won't affect the pure action performance
+                 */
+                LOG.info("preparing {} objects for {}", phase.getNumActions(), preparedActions);
+                if (FedoraRestClient.requiresDatastream(preparedActions)) {
+                    LOG.info("preparing {} datastreams of size {}", phase.getNumActions(), phase.getSize()
+                            .describe());
+                }
+                dataset.prepare(phase.getNumActions(), preparedActions, phase.getSize(), phase.getNumThreads(),
+                        phase.getPrepTxSize());
+                break;
+            case PURGE:
+                /* a single run in rollback mode leaves the prepared objects in place */
+                if (!purge || (rolledBack && !shared)) {
+                    LOG.info("Skipping purge, the objects are kept in the repository");
+                    break;
+                }
+                /* delete all the created objects and datastreams from the repository */
+                LOG.info("purging all objects and datastreams");
+                dataset.purge(phase.getNumThreads(), phase.getPrepTxSize());
+                break;
+            default:
+                final FCRepoBenchRunner runner = new FCRepoBenchRunner(version, fedoraUri, dataset, phase);
+                runner.runBenchmark();
+                rolledBack |= runner.isRolledBack();
+                if (agent != null) {
+                    agent.sendResults(runner);
+                }
+                break;
+            }
+        }
+        if (agent != null) {
+            agent.awaitStart(num + 1);
+        }
+        LOG.info("All operations completed in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Resolve the settings of the measured phases which depend on the version
+     * of Fedora
+     */
+    public void resolve(final FedoraVersion version) {
+        for (final Phase phase : phases) {
+            if (phase.getType() == Phase.Type.RUN) {
+                phase.resolve(version);
+            }
+        }
+    }
+
+    /**
+     * @return the actions the prepared objects have to support. Consuming
+     *         actions of mixes and of shared objects are performed on fresh
+     *         objects created by their workers, so they do not count
+     */
+    private Set<Action> getPreparedActions() {
+        final Set<Action> actions = EnumSet.noneOf(Action.class);
+        for (final Phase phase : phases) {
+            if (phase.getType() != Phase.Type.RUN) {
+                continue;
+            }
+            final Set<Action> phaseActions = phase.getActions();
+            if (shared || phase.getMix() != null) {
+                phaseActions.removeAll(FCRepoBenchRunner.CONSUMING_ACTIONS);
+            }
+            actions.addAll(phaseActions);
+        }
+        return actions;
+    }
+
+    /**
+     * @return the layout of the objects of all the phases, which is set at
+     *         the top level of the scenario
+     */
+    private ObjectLayout getLayout() {
+        final ObjectLayout layout = phases.get(0).getLayout();
+        for (final Phase phase : phases) {
+            if (!phase.getLayout().toString().equals(layout.toString())) {
+                LOG.warn("The layout of the objects is shared by all the phases, layout {} of phase {} ignored",
+                        phase.getLayout(), phase);
+            }
+        }
+        return layout;
+    }
+
+    /**
+     * @return the number of children of the containers listed by the first
+     *         phase listing containers, the containers are shared by all the
+     *         phases
+     */
+    private long[] getChildren() {
+        for (final Phase phase : phases) {
+            if (phase.getType() == Phase.Type.RUN && phase.getActions().contains(Action.LIST)) {
+                return phase.getChildren();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return whether one of the phases checks the fixity of the datastreams
+     */
+    private boolean isFixity() {
+        for (final Phase phase : phases) {
+            if (phase.isFixity()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Insert a suffix into the duration logs and interval reports of all the
+     * phases, e.g. so that agents started in the same directory do not
+     * overwrite each other's files
+     * @param suffix the suffix inserted before the extension
+     */
+    public void suffixOutputs(final String suffix) {
+        for (final Phase phase : phases) {
+            phase.setLogPath(Phase.insertSuffix(phase.getLogPath(), suffix));
+            phase.setReportLogPath(Phase.insertSuffix(phase.getReportLogPath(), suffix));
+        }
+    }
+
+    public List<Phase> getPhases() {
+        return phases;
+    }
+
+    /**
+     * @return the highest number of concurrent requests of all the phases,
+     *         including the ones of their transaction pools
+     */
+    public int getMaxThreads() {
+        int max = 1;
+        for (final Phase phase : phases) {
+            max = Math.max(max, phase.getNumThreads() + TransactionPool.getConnections(phase.getTxPoolSize()));
+        }
+        return max;
+    }
+}
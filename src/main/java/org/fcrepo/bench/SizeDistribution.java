@@ -0,0 +1,250 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The sizes of the binaries ingested, updated and prepared by a run. Besides
+ * a single fixed size, sizes can be drawn from a uniform range, from a
+ * log-normal distribution, which resembles the long tail of real corpora, or
+ * from the sizes of a real corpus read from a file. Distributions are
+ * immutable and draw from {@link ThreadLocalRandom}, so they can be shared by
+ * all the threads of a run.
+ */
+public abstract class SizeDistribution {
+
+    /**
+     * @return the size of the next binary
+     */
+    public abstract long next();
+
+    /**
+     * @return a description of the sizes for the log
+     */
+    public abstract String describe();
+
+    /**
+     * Parse a size or a distribution of sizes:
+     * <ul>
+     * <li><code>1m</code> a fixed size</li>
+     * <li><code>uniform:10k-1g</code> sizes uniformly distributed in a range</li>
+     * <li><code>lognormal:100k,1.5</code> log-normally distributed sizes with
+     * the given median and shape</li>
+     * <li><code>file:sizes.txt</code> the sizes listed in a file, one per line,
+     * optionally followed by the number of binaries of that size</li>
+     * </ul>
+     * @param value the size or distribution
+     * @return the distribution
+     * @throws IOException if the file of sizes can not be read
+     */
+    public static SizeDistribution parse(final String value) throws IOException {
+        final int colon = value.indexOf(':');
+        if (colon < 0) {
+            return fixed(BenchTool.getSizeFromArgument(value));
+        }
+        final String type = value.substring(0, colon).toLowerCase();
+        final String params = value.substring(colon + 1);
+        switch (type) {
+        case "uniform":
+            final int dash = params.indexOf('-');
+            if (dash < 0) {
+                throw new IllegalArgumentException("Uniform sizes have to be given as uniform:<min>-<max>");
+            }
+            return new Uniform(value, BenchTool.getSizeFromArgument(params.substring(0, dash)), BenchTool
+                    .getSizeFromArgument(params.substring(dash + 1)));
+        case "lognormal":
+            final int comma = params.indexOf(',');
+            if (comma < 0) {
+                throw new IllegalArgumentException("Log-normal sizes have to be given as lognormal:<median>,<shape>");
+            }
+            return new LogNormal(value, BenchTool.getSizeFromArgument(params.substring(0, comma)), Double
+                    .parseDouble(params.substring(comma + 1)));
+        case "file":
+            return Empirical.read(value, params);
+        default:
+            throw new IllegalArgumentException("Unknown size distribution " + type);
+        }
+    }
+
+    /**
+     * @param size the size of every binary
+     * @return a distribution of a single size
+     */
+    public static SizeDistribution fixed(final long size) {
+        return new Fixed(size);
+    }
+
+    private static class Fixed extends SizeDistribution {
+
+        private final long size;
+
+        private Fixed(final long size) {
+            this.size = size;
+        }
+
+        @Override
+        public long next() {
+            return size;
+        }
+
+        @Override
+        public String describe() {
+            return FCRepoBenchRunner.convertSize(size);
+        }
+
+        /* the condensed results keep reporting the size in bytes */
+        @Override
+        public String toString() {
+            return String.valueOf(size);
+        }
+    }
+
+    private static class Uniform extends SizeDistribution {
+
+        private final String spec;
+
+        private final long min;
+
+        private final long max;
+
+        private Uniform(final String spec, final long min, final long max) {
+            if (min > max) {
+                throw new IllegalArgumentException("The minimum size is larger than the maximum in " + spec);
+            }
+            this.spec = spec;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public long next() {
+            return Math.min(max, min + (long) (ThreadLocalRandom.current().nextDouble() * (max - min + 1)));
+        }
+
+        @Override
+        public String describe() {
+            return "uniform between " + FCRepoBenchRunner.convertSize(min) + " and " +
+                    FCRepoBenchRunner.convertSize(max);
+        }
+
+        @Override
+        public String toString() {
+            return spec;
+        }
+    }
+
+    private static class LogNormal extends SizeDistribution {
+
+        private final String spec;
+
+        private final long median;
+
+        private final double shape;
+
+        private LogNormal(final String spec, final long median, final double shape) {
+            if (median <= 0 || shape < 0) {
+                throw new IllegalArgumentException("The median and the shape of " + spec + " have to be positive");
+            }
+            this.spec = spec;
+            this.median = median;
+            this.shape = shape;
+        }
+
+        @Override
+        public long next() {
+            return Math.max(1, Math.round(median * Math.exp(shape * ThreadLocalRandom.current().nextGaussian())));
+        }
+
+        @Override
+        public String describe() {
+            return "log-normal with a median of " + FCRepoBenchRunner.convertSize(median) +
+                    " and a shape of " + shape;
+        }
+
+        @Override
+        public String toString() {
+            return spec;
+        }
+    }
+
+    /**
+     * The sizes of a real corpus, drawn with the frequency they occur with
+     */
+    private static class Empirical extends SizeDistribution {
+
+        private final String spec;
+
+        private final long[] sizes;
+
+        /* the cumulative number of binaries up to and including each size */
+        private final long[] cumulative;
+
+        private Empirical(final String spec, final long[] sizes, final long[] cumulative) {
+            this.spec = spec;
+            this.sizes = sizes;
+            this.cumulative = cumulative;
+        }
+
+        private static Empirical read(final String spec, final String path) throws IOException {
+            final List<long[]> entries = new ArrayList<>();
+            try (final BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    final String[] fields = line.split("[\\s,]+");
+                    final long count = fields.length > 1 ? Long.parseLong(fields[1]) : 1;
+                    if (count > 0) {
+                        entries.add(new long[] { BenchTool.getSizeFromArgument(fields[0]), count });
+                    }
+                }
+            } catch (final IllegalArgumentException e) {
+                throw new IOException("Unable to parse the sizes in " + path, e);
+            }
+            if (entries.isEmpty()) {
+                throw new IOException("The file " + path + " does not contain any sizes");
+            }
+            final long[] sizes = new long[entries.size()];
+            final long[] cumulative = new long[entries.size()];
+            long total = 0;
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = entries.get(i)[0];
+                total += entries.get(i)[1];
+                cumulative[i] = total;
+            }
+            return new Empirical(spec, sizes, cumulative);
+        }
+
+        @Override
+        public long next() {
+            final long n = (long) (ThreadLocalRandom.current().nextDouble() * cumulative[cumulative.length - 1]);
+            final int index = Arrays.binarySearch(cumulative, n + 1);
+            return sizes[index < 0 ? -index - 1 : index];
+        }
+
+        @Override
+        public String describe() {
+            return "as in " + spec.substring(spec.indexOf(':') + 1) + " (" + cumulative[cumulative.length - 1] +
+                    " binaries)";
+        }
+
+        @Override
+        public String toString() {
+            return spec;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.FileContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+/**
+ * The content of a real file sent as the payload of a datastream. The file is
+ * opened by the {@link FileSource} ahead of the request. Non-blocking
+ * connections transfer the file to the socket with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * so its content is never copied into the JVM, blocking connections only
+ * accept an {@link OutputStream} and copy it through a pooled buffer.
+ */
+public class SourceFileEntity extends AbstractHttpEntity implements HttpAsyncContentProducer {
+
+    /* reused for copying files to blocking connections */
+    private static final Queue<byte[]> COPY_BUFFERS = new ConcurrentLinkedQueue<>();
+
+    private final Path path;
+
+    private final long size;
+
+    /* null once the file has been sent */
+    private FileChannel channel;
+
+    /* the number of bytes produced for a non-blocking connection */
+    private long produced;
+
+    /* the bytes read but not yet accepted by an encoder which can not transfer files */
+    private ByteBuffer pending;
+
+    /**
+     * @param path the file
+     * @param channel the file opened for reading
+     */
+    public SourceFileEntity(final Path path, final FileChannel channel) throws IOException {
+        super();
+        this.path = path;
+        this.channel = channel;
+        this.size = channel.size();
+        setContentType(ContentType.APPLICATION_OCTET_STREAM.toString());
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.HttpEntity#isRepeatable()
+     */
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.HttpEntity#getContentLength()
+     */
+    @Override
+    public long getContentLength() {
+        return size;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.HttpEntity#getContent()
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        return Files.newInputStream(path);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.HttpEntity#writeTo(java.io.OutputStream)
+     */
+    @Override
+    public void writeTo(final OutputStream outstream) throws IOException {
+        byte[] buffer = COPY_BUFFERS.poll();
+        if (buffer == null) {
+            buffer = new byte[65536];
+        }
+        try {
+            final FileChannel in = channel();
+            final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+            long position = 0;
+            while (position < size) {
+                ((Buffer) wrapped).clear();
+                final int read = in.read(wrapped, position);
+                if (read < 0) {
+                    throw new IOException("The file " + path + " has been truncated while it was sent");
+                }
+                outstream.write(buffer, 0, read);
+                position += read;
+            }
+        } finally {
+            COPY_BUFFERS.offer(buffer);
+            closeChannel();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.nio.entity.HttpAsyncContentProducer#produceContent(org.apache.http.nio.ContentEncoder,
+     * org.apache.http.nio.IOControl)
+     */
+    @Override
+    public void produceContent(final ContentEncoder encoder, final IOControl ioctrl) throws IOException {
+        final FileChannel in = channel();
+        if (encoder instanceof FileContentEncoder) {
+            /* the encoder transfers the file to the socket without copying it */
+            produced += ((FileContentEncoder) encoder).transfer(in, produced, size - produced);
+        } else {
+            if (pending == null) {
+                pending = ByteBuffer.allocate(65536);
+                ((Buffer) pending).flip();
+            }
+            if (!pending.hasRemaining()) {
+                ((Buffer) pending).clear();
+                if (in.read(pending, produced) < 0) {
+                    throw new IOException("The file " + path + " has been truncated while it was sent");
+                }
+                ((Buffer) pending).flip();
+            }
+            produced += encoder.write(pending);
+        }
+        if (produced >= size) {
+            encoder.complete();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        /* a repeated request produces the file from the start */
+        produced = 0;
+        pending = null;
+        closeChannel();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.HttpEntity#isStreaming()
+     */
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /* the file is opened again if a request is repeated */
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+        return channel;
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Wraps a {@link ConnectionSocketFactory} in order to mark the connect phase
+ * and the first and last bytes written to and read from the socket in the
+ * {@link RequestTimings} of the thread using the connection. Layered (TLS)
+ * sockets are created on top of the timed socket, so the marks refer to the
+ * encrypted bytes on the wire.
+ */
+public class TimingSocketFactory implements LayeredConnectionSocketFactory {
+
+    private final ConnectionSocketFactory delegate;
+
+    public TimingSocketFactory(final ConnectionSocketFactory delegate) {
+        super();
+        this.delegate = delegate;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.conn.socket.ConnectionSocketFactory#createSocket(org.apache.http.protocol.HttpContext)
+     */
+    @Override
+    public Socket createSocket(final HttpContext context) throws IOException {
+        return new TimingSocket();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.conn.socket.ConnectionSocketFactory#connectSocket(int, java.net.Socket,
+     * org.apache.http.HttpHost, java.net.InetSocketAddress, java.net.InetSocketAddress,
+     * org.apache.http.protocol.HttpContext)
+     */
+    @Override
+    public Socket connectSocket(final int connectTimeout, final Socket sock, final HttpHost host,
+            final InetSocketAddress remoteAddress, final InetSocketAddress localAddress, final HttpContext context)
+            throws IOException {
+        final RequestTimings timings = RequestTimings.current();
+        timings.connectStarted();
+        try {
+            return delegate.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+        } finally {
+            timings.connectFinished();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.http.conn.socket.LayeredConnectionSocketFactory#createLayeredSocket(java.net.Socket,
+     * java.lang.String, int, org.apache.http.protocol.HttpContext)
+     */
+    @Override
+    public Socket createLayeredSocket(final Socket socket, final String target, final int port,
+            final HttpContext context) throws IOException {
+        if (!(delegate instanceof LayeredConnectionSocketFactory)) {
+            throw new IOException("Layered sockets are not supported by " + delegate);
+        }
+        return ((LayeredConnectionSocketFactory) delegate).createLayeredSocket(socket, target, port, context);
+    }
+
+    private static class TimingSocket extends Socket {
+
+        private InputStream in;
+
+        private OutputStream out;
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (in == null) {
+                in = new TimingInputStream(super.getInputStream());
+            }
+            return in;
+        }
+
+        @Override
+        public synchronized OutputStream getOutputStream() throws IOException {
+            if (out == null) {
+                out = new TimingOutputStream(super.getOutputStream());
+            }
+            return out;
+        }
+    }
+
+    private static class TimingInputStream extends FilterInputStream {
+
+        private TimingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                RequestTimings.current().bytesRead();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = in.read(b, off, len);
+            if (read > 0) {
+                RequestTimings.current().bytesRead();
+            }
+            return read;
+        }
+    }
+
+    private static class TimingOutputStream extends FilterOutputStream {
+
+        private TimingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            final RequestTimings timings = RequestTimings.current();
+            timings.writeStarted();
+            out.write(b);
+            timings.writeFinished();
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            /* FilterOutputStream would write the bytes one by one */
+            final RequestTimings timings = RequestTimings.current();
+            timings.writeStarted();
+            out.write(b, off, len);
+            timings.writeFinished();
+        }
+    }
+}
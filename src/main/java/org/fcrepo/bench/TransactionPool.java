@@ -0,0 +1,300 @@
+/**
+ *
+ */
+
+package org.fcrepo.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.fcrepo.bench.BenchTool.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of transactions which have been opened ahead of the actions, the
+ * way ingest services keep transactions ready so that a batch never waits for
+ * the creation of its transaction. Background threads refill the pool as
+ * transactions are taken and the transactions opened by the pool are kept
+ * alive until they are finished, since Fedora expires transactions which are
+ * not used for a while. Transactions still idle once the pool is closed are
+ * rolled back.
+ */
+public class TransactionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TransactionPool.class);
+
+    /* Fedora 4 expires transactions three minutes after their creation or last keep-alive by default */
+    private static final long KEEP_ALIVE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    /* the most transactions opened at once, every refiller holds a connection while it opens one */
+    private static final int MAX_REFILLERS = 4;
+
+    /* the pause of a refiller after a failed creation, so that a failing Fedora is not flooded */
+    private static final long RETRY_DELAY = 1000;
+
+    private final FedoraRestClient fedora;
+
+    private final int actionsPerTx;
+
+    private final LatencyRecorder recorder;
+
+    private final BlockingQueue<TransactionState> ready;
+
+    /* the transactions missing from the pool, claimed by the refillers */
+    private final Semaphore vacancies;
+
+    /* the transactions opened by the pool which have not been finished yet */
+    private final Set<TransactionState> open =
+            Collections.newSetFromMap(new ConcurrentHashMap<TransactionState, Boolean>());
+
+    private final List<Thread> threads = new ArrayList<>();
+
+    private final AtomicLong taken = new AtomicLong();
+
+    private final AtomicLong missed = new AtomicLong();
+
+    private final AtomicLong keepAlives = new AtomicLong();
+
+    private volatile IOException failure;
+
+    /* signalled by the refillers whenever a transaction has been opened or could not be */
+    private final Lock lock = new ReentrantLock();
+
+    private final Condition refilled = lock.newCondition();
+
+    /**
+     * @param fedora the client opening the transactions
+     * @param size the number of transactions kept ready
+     * @param actionsPerTx the maximum number of actions per transaction
+     * @param recorder records the latency of the creations performed in the
+     *        background
+     */
+    public TransactionPool(final FedoraRestClient fedora, final int size, final int actionsPerTx,
+            final LatencyRecorder recorder) {
+        super();
+        this.fedora = fedora;
+        this.actionsPerTx = actionsPerTx;
+        this.recorder = recorder;
+        this.ready = new ArrayBlockingQueue<>(size);
+        this.vacancies = new Semaphore(size);
+    }
+
+    /**
+     * @param size the number of transactions kept ready
+     * @return the number of connections the pool uses at most
+     */
+    public static int getConnections(final int size) {
+        return size > 0 ? Math.min(size, MAX_REFILLERS) + 1 : 0;
+    }
+
+    /**
+     * Start opening transactions and wait until the pool is full
+     * @throws IOException if Fedora refuses to open a transaction before the
+     *         pool has been filled
+     */
+    public void fill() throws IOException, InterruptedException {
+        final int refillers = Math.min(ready.remainingCapacity(), MAX_REFILLERS);
+        for (int i = 0; i < refillers; i++) {
+            start(new Runnable() {
+
+                @Override
+                public void run() {
+                    refill();
+                }
+            }, "tx-pool-refiller-" + i);
+        }
+        start(new Runnable() {
+
+            @Override
+            public void run() {
+                keepAlive();
+            }
+        }, "tx-pool-keep-alive");
+        lock.lock();
+        try {
+            while (ready.remainingCapacity() > 0) {
+                if (failure != null) {
+                    throw failure;
+                }
+                refilled.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+        LOG.info("Opened a pool of {} transaction(s)", ready.size());
+    }
+
+    private void start(final Runnable task, final String name) {
+        final Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        threads.add(thread);
+    }
+
+    /**
+     * Take a transaction which has been opened already
+     * @return the transaction or null if the pool is empty, in which case
+     *         the caller has to create one on demand
+     */
+    public TransactionState poll() {
+        final TransactionState tx = ready.poll();
+        if (tx == null) {
+            missed.incrementAndGet();
+            return null;
+        }
+        vacancies.release();
+        taken.incrementAndGet();
+        return tx;
+    }
+
+    /**
+     * Return a transaction which has been taken but not used
+     * @param tx the transaction taken from the pool
+     */
+    public void putBack(final TransactionState tx) {
+        if (vacancies.tryAcquire()) {
+            if (ready.offer(tx)) {
+                taken.decrementAndGet();
+                return;
+            }
+            vacancies.release();
+        }
+        /* the pool has been refilled in the meantime */
+        rollback(tx);
+    }
+
+    private void refill() {
+        try {
+            while (true) {
+                vacancies.acquire();
+                final TransactionState tx = new TransactionState(actionsPerTx);
+                tx.setPooled(true);
+                final long duration;
+                try {
+                    duration = fedora.createTransaction(tx);
+                } catch (final IOException | RuntimeException e) {
+                    LOG.warn("Unable to open a transaction of the pool: {}", e.toString());
+                    failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                    vacancies.release();
+                    signalRefilled();
+                    Thread.sleep(RETRY_DELAY);
+                    continue;
+                }
+                recorder.recordPooledCreation(duration);
+                /* the actions bound to a pooled transaction are released right away */
+                tx.actionCompleted(Action.CREATE_TX);
+                open.add(tx);
+                ready.add(tx);
+                signalRefilled();
+                LOG.debug("Opened pooled transaction {}", tx.getTransactionId());
+            }
+        } catch (final InterruptedException e) {
+            /* closed */
+        }
+    }
+
+    private void signalRefilled() {
+        lock.lock();
+        try {
+            refilled.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void keepAlive() {
+        try {
+            while (true) {
+                Thread.sleep(KEEP_ALIVE_INTERVAL);
+                for (final TransactionState tx : open) {
+                    if (tx.isReadyForCommit()) {
+                        /* finished or about to be */
+                        open.remove(tx);
+                        continue;
+                    }
+                    try {
+                        fedora.keepAliveTransaction(tx);
+                        keepAlives.incrementAndGet();
+                    } catch (final IOException e) {
+                        LOG.warn("Unable to keep transaction {} alive: {}", tx.getTransactionId(), e.toString());
+                        open.remove(tx);
+                        /* an expired transaction must not be handed out */
+                        if (ready.remove(tx)) {
+                            vacancies.release();
+                        }
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            /* closed */
+        }
+    }
+
+    /**
+     * Stop refilling the pool and roll back the transactions which have not
+     * been taken
+     */
+    public void close() {
+        for (final Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (final Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        final List<TransactionState> idle = new ArrayList<>();
+        ready.drainTo(idle);
+        for (final TransactionState tx : idle) {
+            rollback(tx);
+        }
+        LOG.debug("Rolled back {} idle pooled transaction(s)", idle.size());
+    }
+
+    private void rollback(final TransactionState tx) {
+        open.remove(tx);
+        tx.setReadyForCommit(true);
+        try {
+            fedora.rollbackTransaction(tx);
+        } catch (final IOException e) {
+            LOG.warn("Unable to roll back the idle transaction {}: {}", tx.getTransactionId(), e.toString());
+        }
+    }
+
+    /**
+     * @return the number of transactions taken from the pool
+     */
+    public long getTaken() {
+        return taken.get();
+    }
+
+    /**
+     * @return the number of transactions which had to be created on demand
+     *         since the pool was empty
+     */
+    public long getMissed() {
+        return missed.get();
+    }
+
+    /**
+     * @return the number of keep-alives sent
+     */
+    public long getKeepAlives() {
+        return keepAlives.get();
+    }
+}
@@ -17,6 +17,7 @@
 package org.fcrepo.bench;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.fcrepo.bench.BenchTool.Action;
 import org.slf4j.Logger;
@@ -27,6 +28,12 @@ import static org.fcrepo.bench.BenchTool.Action.ROLLBACK_TX;
 import static org.fcrepo.bench.BenchTool.Action.CREATE_TX;
 
 /**
+ * The state of a transaction and the work depending on it. Actions assigned
+ * to the transaction before it has been created wait in the transaction
+ * instead of on a thread and are released once the creation has completed,
+ * the commit or rollback is released once the last action has completed.
+ * The state is shared by the dispatching threads and the workers without
+ * locks, every transition is a single atomic update.
  * @author bbpennel
  * @date Feb 24, 2014
  */
@@ -34,19 +41,37 @@ public class TransactionState {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TransactionState.class);
 
-    private String transactionId;
+    /* the head of the tasks awaiting creation once the transaction has been created */
+    private static final Waiting CREATED = new Waiting(null, null);
 
-    private int actionsAssigned;
+    private volatile String transactionId;
 
-    private int maxActions;
+    private final AtomicInteger actionsAssigned;
+
+    private volatile int maxActions;
 
     private final AtomicInteger actionsCompleted;
 
-    private boolean readyForCommit;
+    private volatile boolean readyForCommit;
+
+    /* set once the creation has failed, the actions waiting for it are not sent */
+    private volatile boolean failed;
+
+    /* opened ahead of its actions by a TransactionPool */
+    private volatile boolean pooled;
+
+    /* when the first action was assigned as returned by System#nanoTime(), the start of the batch */
+    private volatile long firstAssigned;
+
+    /* the tasks waiting for the transaction to be created, pushed without locking */
+    private final AtomicReference<Waiting> awaitingCreation = new AtomicReference<>();
+
+    /* finishes the transaction once all its actions have completed, null until all have been assigned */
+    private final AtomicReference<Runnable> finisher = new AtomicReference<>();
 
     public TransactionState(final int actionsPerTx) {
         transactionId = null;
-        actionsAssigned = 0;
+        this.actionsAssigned = new AtomicInteger(0);
         this.actionsCompleted = new AtomicInteger(0);
         readyForCommit = false;
         maxActions = actionsPerTx;
@@ -66,22 +91,90 @@ public class TransactionState {
         return transactionId;
     }
 
+    /**
+     * Called once an action performed as part of the transaction has
+     * finished, whether it succeeded or not. Releases the tasks depending on
+     * the action.
+     * @param action the action performed
+     */
     public void actionCompleted(final Action action) {
-        if (action == CREATE_TX || action == COMMIT_TX || action == ROLLBACK_TX) {
+        if (action == CREATE_TX) {
+            created();
+            return;
+        }
+        if (action == COMMIT_TX || action == ROLLBACK_TX) {
             return;
         }
         final int completed = this.actionsCompleted.incrementAndGet();
-        if (completed >= maxActions) {
+        LOGGER.debug("Completed {} action(s) for {}", completed, transactionId);
+        final int max = maxActions;
+        if (max > 0 && completed >= max) {
             readyForCommit = true;
+            /* only one of the last action and the dispatcher gets the finisher */
+            final Runnable ready = finisher.getAndSet(null);
+            if (ready != null) {
+                ready.run();
+            }
+        }
+    }
+
+    /**
+     * Run a task once the transaction has been created, or right away if it
+     * already has. A failed creation releases the task as well, the actions
+     * of a failed transaction are counted as errors without being sent.
+     * @param task the task depending on the transaction, e.g. submitting an
+     *        action
+     */
+    public void whenCreated(final Runnable task) {
+        while (true) {
+            final Waiting head = awaitingCreation.get();
+            if (head == CREATED) {
+                task.run();
+                return;
+            }
+            if (awaitingCreation.compareAndSet(head, new Waiting(task, head))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Run a task once all the actions of the transaction have completed, or
+     * right away if they already have. Called once all the actions have been
+     * assigned.
+     * @param task the task finishing the transaction
+     */
+    public void whenCompleted(final Runnable task) {
+        finisher.set(task);
+        /* the last action may have completed before the finisher was set */
+        if (actionsCompleted.get() >= maxActions && finisher.compareAndSet(task, null)) {
+            readyForCommit = true;
+            task.run();
+        }
+    }
+
+    private void created() {
+        Waiting waiting = awaitingCreation.getAndSet(CREATED);
+        /* the tasks have been pushed, so they are released in the reverse order of their assignment */
+        Waiting ordered = null;
+        int count = 0;
+        while (waiting != null && waiting != CREATED) {
+            ordered = new Waiting(waiting.task, ordered);
+            waiting = waiting.next;
+            count++;
+        }
+        LOGGER.debug("Created {}, releasing {} action(s)", transactionId, count);
+        while (ordered != null) {
+            ordered.task.run();
+            ordered = ordered.next;
         }
-        LOGGER.debug("Completed {} action(s) for {}", completed, transactionId);
     }
 
     /**
      * @return the actionsAssigned
      */
     public int getActionsAssigned() {
-        return actionsAssigned;
+        return actionsAssigned.get();
     }
 
     /**
@@ -91,22 +184,56 @@ public class TransactionState {
         this.maxActions = maxActions;
     }
 
-    public void assignAction() {
-        actionsAssigned++;
+    /**
+     * Assign an action to the transaction unless it is full
+     * @return the number of the action within the transaction starting at
+     *         1, or 0 if the transaction already holds the maximum number of
+     *         actions
+     */
+    public int assignAction() {
+        while (true) {
+            final int assigned = actionsAssigned.get();
+            final int max = maxActions;
+            if (max > 0 && assigned >= max) {
+                return 0;
+            }
+            if (actionsAssigned.compareAndSet(assigned, assigned + 1)) {
+                if (assigned == 0) {
+                    firstAssigned = System.nanoTime();
+                }
+                return assigned + 1;
+            }
+        }
     }
 
     public boolean actionsAssigned() {
-        return actionsAssigned > 0;
+        return actionsAssigned.get() > 0;
     }
 
     public boolean allActionsAssigned() {
-        return actionsAssigned == maxActions && maxActions > 0;
+        final int max = maxActions;
+        return actionsAssigned.get() == max && max > 0;
     }
 
     public boolean transactionCreated() {
         return this.transactionId != null;
     }
 
+    /**
+     * Mark the creation of the transaction as failed. Has to be called
+     * before the completion of the creation releases the waiting actions.
+     */
+    public void setFailed() {
+        this.failed = true;
+    }
+
+    /**
+     * @return true if the transaction could not be created
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
     public void setReadyForCommit(final boolean readyForCommit) {
         this.readyForCommit = readyForCommit;
     }
@@ -114,4 +241,40 @@ public class TransactionState {
     public boolean isReadyForCommit() {
         return readyForCommit;
     }
+
+    public void setPooled(final boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * @return true if the transaction has been opened by a pool before its
+     *         first action was assigned
+     */
+    public boolean isPooled() {
+        return pooled;
+    }
+
+    /**
+     * @return the time the first action was assigned as returned by
+     *         {@link System#nanoTime()}
+     */
+    public long getFirstAssigned() {
+        return firstAssigned;
+    }
+
+    /**
+     * A task waiting for the transaction to be created, linked to the ones
+     * which have been waiting longer
+     */
+    private static class Waiting {
+
+        private final Runnable task;
+
+        private final Waiting next;
+
+        private Waiting(final Runnable task, final Waiting next) {
+            this.task = task;
+            this.next = next;
+        }
+    }
 }
@@ -19,10 +19,20 @@ package org.fcrepo.bench;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.fcrepo.bench.BenchTool.Action;
 
 /**
+ * Assigns actions to a pool of parallel transactions. Every transaction
+ * occupies a slot of the pool until it is full, then the slot is emptied and
+ * the next assignment to it opens a new transaction. Slots are claimed with
+ * compare and set, so several dispatching threads can assign actions at once
+ * without locking. With a {@link TransactionPool} new transactions are taken
+ * from the ones it has opened ahead, as long as it holds any.
  * @author bbpennel
  * @date Feb 24, 2014
  */
@@ -36,54 +46,98 @@ public class TransactionStateManager {
 
     private final int actionsPerTx;
 
-    private final List<TransactionState> transactions;
+    /* the open transactions, null where a transaction has been filled */
+    private final AtomicReferenceArray<TransactionState> slots;
 
-    private int nextTxIndex;
+    /* spreads the assignments evenly over the slots */
+    private final AtomicInteger nextSlot = new AtomicInteger();
 
     private final int parallelTx;
 
-    private long createTime;
+    /* opens the transactions ahead of their actions, null if they are created on demand */
+    private volatile TransactionPool pool;
 
-    private long commitTime;
+    /* added to by the workers, read by the metrics endpoint */
+    private final AtomicLong createTime = new AtomicLong();
+
+    private final AtomicLong commitTime = new AtomicLong();
 
     public TransactionStateManager(final TransactionMode mode, final int actionsPerTx, final int parallelTx)
             throws IOException {
         this.mode = mode;
         this.actionsPerTx = actionsPerTx;
-        this.parallelTx = parallelTx;
-        this.nextTxIndex = 0;
+        this.parallelTx = Math.max(parallelTx, 1);
 
-        this.transactions = new ArrayList<>(parallelTx);
+        this.slots = new AtomicReferenceArray<>(this.parallelTx);
     }
 
-    public TransactionState getTransaction() throws IOException {
-        final TransactionState tx;
-
-        if (transactions.size() < parallelTx) {
-            tx = new TransactionState(actionsPerTx);
-            transactions.add(tx);
-            return tx;
+    /**
+     * Assign an action to the transaction of the next slot, opening a new
+     * transaction if the slot is empty. Safe to be called by several threads
+     * at once.
+     * @return the transaction and whether the caller has to create or finish
+     *         it
+     */
+    public Assignment assign() {
+        while (true) {
+            final int slot = (nextSlot.getAndIncrement() & Integer.MAX_VALUE) % parallelTx;
+            TransactionState tx = slots.get(slot);
+            if (tx == null) {
+                final TransactionState opened = open();
+                if (!slots.compareAndSet(slot, null, opened)) {
+                    if (opened.isPooled()) {
+                        pool.putBack(opened);
+                    }
+                    continue;
+                }
+                tx = opened;
+            }
+            final int ordinal = tx.assignAction();
+            final boolean last = actionsPerTx > 0 && ordinal == actionsPerTx;
+            if (ordinal == 0 || last) {
+                /* full, the next assignment to the slot opens a new transaction */
+                slots.compareAndSet(slot, tx, null);
+            }
+            if (ordinal > 0) {
+                return new Assignment(tx, ordinal == 1, last);
+            }
         }
+    }
 
-        tx = transactions.get(nextTxIndex);
-
-        if (tx.isReadyForCommit() || (actionsPerTx > 0 && tx.getActionsAssigned() == actionsPerTx - 1)) {
-            // Transaction is at capacity, remove it from the list of candidates
-            transactions.remove(nextTxIndex);
-        } else {
-            // Move to the next transaction
-            nextTxIndex = (nextTxIndex + 1) % parallelTx;
-        }
+    /* a transaction of the pool if one is ready, a new one to be created by the dispatcher otherwise */
+    private TransactionState open() {
+        final TransactionPool ready = pool;
+        final TransactionState pooled = ready == null ? null : ready.poll();
+        return pooled == null ? new TransactionState(actionsPerTx) : pooled;
+    }
 
-        return tx;
+    /**
+     * Take the transactions from a pool of transactions opened ahead instead
+     * of creating them on demand
+     * @param pool the pool or null to create all transactions on demand
+     */
+    public void setPool(final TransactionPool pool) {
+        this.pool = pool;
     }
 
-    public List<TransactionState> getTransactions() {
-        return transactions;
+    public TransactionPool getPool() {
+        return pool;
     }
 
-    public void clearTransactions() {
-        transactions.clear();
+    /**
+     * Empty the slots, e.g. to finish the transactions which are not full at
+     * the end of a run. Must not be called while actions are assigned.
+     * @return the transactions which were open
+     */
+    public List<TransactionState> drain() {
+        final List<TransactionState> open = new ArrayList<>(parallelTx);
+        for (int i = 0; i < parallelTx; i++) {
+            final TransactionState tx = slots.getAndSet(i, null);
+            if (tx != null) {
+                open.add(tx);
+            }
+        }
+        return open;
     }
 
     /**
@@ -115,24 +169,63 @@ public class TransactionStateManager {
     }
 
     /**
-     * @return the createTime
+     * @return the createTime in milliseconds
      */
     public long getCreateTime() {
-        return createTime;
+        return TimeUnit.NANOSECONDS.toMillis(createTime.get());
     }
 
     public void addToCreateTime(final long time) {
-        createTime += time;
+        createTime.addAndGet(time);
     }
 
     /**
-     * @return the commitTime
+     * @return the commitTime in milliseconds
      */
     public long getCommitTime() {
-        return commitTime;
+        return TimeUnit.NANOSECONDS.toMillis(commitTime.get());
     }
 
     public void addToCommitTime(final long time) {
-        commitTime += time;
+        commitTime.addAndGet(time);
+    }
+
+    /**
+     * An action assigned to a transaction
+     */
+    public static class Assignment {
+
+        private final TransactionState transaction;
+
+        private final boolean first;
+
+        private final boolean last;
+
+        private Assignment(final TransactionState transaction, final boolean first, final boolean last) {
+            this.transaction = transaction;
+            this.first = first;
+            this.last = last;
+        }
+
+        public TransactionState getTransaction() {
+            return transaction;
+        }
+
+        /**
+         * @return true if the action is the first of the transaction, whose
+         *         dispatcher has to create it unless it has been taken from
+         *         a {@link TransactionPool}
+         */
+        public boolean isFirst() {
+            return first;
+        }
+
+        /**
+         * @return true if the action fills the transaction, whose dispatcher
+         *         has to finish it
+         */
+        public boolean isLast() {
+            return last;
+        }
     }
 }